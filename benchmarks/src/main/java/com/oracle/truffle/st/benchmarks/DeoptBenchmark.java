@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Counts the compilations, invalidations and deoptimizations while a workload warms up, like the
+ * {@link WarmupBenchmark} does, to compare {@link Instrument#FIRST_HIT_BATCH batched} first hits
+ * with the default of invalidating compiled code for each. The counts are read from the engine's
+ * compilation trace and reported as secondary results, per iteration, next to the warm-up time.
+ * They are only meaningful on a JDK with the Graal compiler, elsewhere nothing is compiled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeoptBenchmark {
+
+    @Param({"JS", "PYTHON"}) Workload workload;
+    @Param({"OFF", "COVERAGE", "FIRST_HIT_BATCH"}) Instrument instrument;
+    @Param({"50"}) int runs;
+
+    private Context context;
+    private CompilationTrace trace;
+
+    /**
+     * The counts of an iteration. JMH reports each public field.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counts {
+
+        public long compilations;
+        public long invalidations;
+        public long deoptimizations;
+    }
+
+    /**
+     * Counts the lines of the compilation trace, e.g. {@code opt done id=12 ...}. The engine logs
+     * them from its compiler threads.
+     */
+    static final class CompilationTrace extends Handler {
+
+        private final AtomicLong compilations = new AtomicLong();
+        private final AtomicLong invalidations = new AtomicLong();
+        private final AtomicLong deoptimizations = new AtomicLong();
+
+        @Override
+        public void publish(LogRecord record) {
+            final String message = record.getMessage();
+            if (message == null) {
+                return;
+            }
+            if (message.contains("opt done")) {
+                compilations.incrementAndGet();
+            } else if (message.contains("opt inval")) {
+                invalidations.incrementAndGet();
+            } else if (message.contains("opt deopt")) {
+                deoptimizations.incrementAndGet();
+            }
+        }
+
+        void copyTo(Counts counts) {
+            counts.compilations = compilations.get();
+            counts.invalidations = invalidations.get();
+            counts.deoptimizations = deoptimizations.get();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        trace = new CompilationTrace();
+        context = instrument.newContext(workload).option("engine.TraceCompilation", "true").logHandler(trace).build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void warmup(Blackhole blackhole, Counts counts) {
+        final Value main = workload.load(context);
+        for (int i = 0; i < runs; i++) {
+            blackhole.consume(main.execute());
+        }
+        trace.copyTo(counts);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.graalvm.polyglot.Context;
+
+import com.oracle.truffle.st.SimpleCoverageInstrument;
+
+/**
+ * How the instrument is configured in a benchmark. {@link #OFF} is the baseline the other
+ * configurations are compared to.
+ */
+public enum Instrument {
+
+    OFF,
+    COVERAGE,
+    COUNTS,
+    REMOVE_COVERED,
+    SAMPLED,
+    BUDGET,
+    ROOT,
+    EXPRESSION,
+    FIRST_HIT_BATCH,
+    HOT_SECTIONS;
+
+    /**
+     * @return the options of the instrument. It does not print its report, as that is measured
+     *         separately by the {@link ReportBenchmark}.
+     */
+    Map<String, String> options() {
+        final Map<String, String> options = new HashMap<>();
+        if (this != OFF) {
+            options.put(SimpleCoverageInstrument.ID, "true");
+            options.put(SimpleCoverageInstrument.ID + ".PrintCoverage", "false");
+        }
+        if (this == COUNTS) {
+            options.put(SimpleCoverageInstrument.ID + ".Mode", "counts");
+        } else if (this == REMOVE_COVERED) {
+            options.put(SimpleCoverageInstrument.ID + ".RemoveCovered", "true");
+        } else if (this == SAMPLED) {
+            options.put(SimpleCoverageInstrument.ID + ".SampleWindow", "100");
+            options.put(SimpleCoverageInstrument.ID + ".SamplePeriod", "1000");
+        } else if (this == BUDGET) {
+            options.put(SimpleCoverageInstrument.ID + ".InvalidationBudget", "100");
+        } else if (this == ROOT) {
+            options.put(SimpleCoverageInstrument.ID + ".Granularity", "root");
+        } else if (this == EXPRESSION) {
+            options.put(SimpleCoverageInstrument.ID + ".Granularity", "statement,expression");
+        } else if (this == FIRST_HIT_BATCH) {
+            options.put(SimpleCoverageInstrument.ID + ".FirstHitBatch", "256");
+        } else if (this == HOT_SECTIONS) {
+            options.put(SimpleCoverageInstrument.ID + ".HotSections", "10");
+        }
+        return options;
+    }
+
+    Context.Builder newContext(Workload workload) {
+        return Context.newBuilder(workload.languageId).options(options());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+/**
+ * The guest programs we measure. Each is the primes program of {@code example.js}, which is also
+ * the program of the JavaScript tests, written in one of the languages we support. Evaluating the
+ * program runs it once, after that its main function is called for each operation.
+ */
+public enum Workload {
+
+    JS("js", "example.js", "primesMain"),
+    PYTHON("python", "primes.py", "primes_main"),
+    /**
+     * Only available if SL is on the class path, which the benchmarks do not depend on, so it is
+     * not measured by default. Add SL to the class path and pass {@code -p workload=SL} to measure
+     * it.
+     */
+    SL("sl", "primes.sl", "primesMain");
+
+    final String languageId;
+    private final String fileName;
+    private final String mainName;
+
+    Workload(String languageId, String fileName, String mainName) {
+        this.languageId = languageId;
+        this.fileName = fileName;
+        this.mainName = mainName;
+    }
+
+    Source source() {
+        try (Reader reader = new InputStreamReader(Workload.class.getResourceAsStream("/workloads/" + fileName), StandardCharsets.UTF_8)) {
+            return Source.newBuilder(languageId, reader, fileName).build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Evaluates the program in the context.
+     *
+     * @return the main function of the program.
+     */
+    Value load(Context context) {
+        context.eval(source());
+        return context.getBindings(languageId).getMember(mainName);
+    }
+}
@@ -0,0 +1,47 @@
+#
+# Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+# DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+#
+
+# The primes program of example.js: each found prime becomes a filter in a chain
+# that the following candidates have to pass.
+
+N = 2000
+EXPECTED = 17393
+
+
+class Filter:
+    def __init__(self, number, next_filter):
+        self.number = number
+        self.next_filter = next_filter
+
+    def accept(self, n):
+        f = self
+        while f is not None:
+            if n % f.number == 0:
+                return False
+            f = f.next_filter
+        return True
+
+
+def never_called():
+    return None
+
+
+def primes_main():
+    primes = None
+    found = 0
+    n = 2
+    last = 0
+    while found <= N:
+        if primes is None or primes.accept(n):
+            primes = Filter(n, primes)
+            found += 1
+            last = n
+        n += 1
+    if last != EXPECTED:
+        raise Exception("wrong prime found: " + str(last))
+    return last
+
+
+primes_main()
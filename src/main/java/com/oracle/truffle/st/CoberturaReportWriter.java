@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the report in the Cobertura XML format. Each source is reported as a class of a single
+ * unnamed package, with a {@code line} element per loaded line. If
+ * {@link SourceReport#functions functions} were recorded, each is a {@code method} of the class.
+ */
+final class CoberturaReportWriter extends CoverageReportWriter {
+
+    CoberturaReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void begin(int loadedLines, int coveredLines) throws IOException {
+        out.write("<?xml version=\"1.0\" ?>\n");
+        out.write("<!DOCTYPE coverage SYSTEM \"http://cobertura.sourceforge.net/xml/coverage-04.dtd\">\n");
+        out.write("<coverage line-rate=\"" + rate(coveredLines, loadedLines) + "\" branch-rate=\"0\" lines-covered=\"" + coveredLines + "\" lines-valid=\"" + loadedLines +
+                        "\" branches-covered=\"0\" branches-valid=\"0\" complexity=\"0\" version=\"0.1\" timestamp=\"" + System.currentTimeMillis() + "\">\n");
+        out.write("<sources><source>.</source></sources>\n");
+        out.write("<packages>\n<package name=\"\" line-rate=\"" + rate(coveredLines, loadedLines) + "\" branch-rate=\"0\" complexity=\"0\">\n<classes>\n");
+    }
+
+    @Override
+    void writeSource(SourceReport report) throws IOException {
+        out.write("<class name=\"");
+        writeEscaped(report.name);
+        out.write("\" filename=\"");
+        writeEscaped(report.name);
+        out.write("\" line-rate=\"" + rate(report.coveredLineCount, report.loadedLineCount) + "\" branch-rate=\"0\" complexity=\"0\">\n");
+        writeMethods(report);
+        out.write("<lines>\n");
+        for (int i = report.loadedLines.nextSetBit(0); i >= 0; i = report.loadedLines.nextSetBit(i + 1)) {
+            out.write("<line number=\"");
+            write(i);
+            out.write("\" hits=\"");
+            write(report.hits(i));
+            out.write("\" branch=\"false\"/>\n");
+        }
+        out.write("</lines>\n</class>\n");
+    }
+
+    private void writeMethods(SourceReport report) throws IOException {
+        if (report.functions.isEmpty()) {
+            out.write("<methods/>\n");
+            return;
+        }
+        out.write("<methods>\n");
+        for (SourceReport.Function function : report.functions) {
+            out.write("<method name=\"");
+            writeEscaped(function.name);
+            out.write("\" signature=\"\" line-rate=\"" + (function.covered ? "1.0" : "0.0") + "\" branch-rate=\"0\" complexity=\"0\">\n<lines><line number=\"");
+            write(function.line);
+            out.write("\" hits=\"");
+            write(function.hits);
+            out.write("\" branch=\"false\"/></lines>\n</method>\n");
+        }
+        out.write("</methods>\n");
+    }
+
+    @Override
+    void end() throws IOException {
+        out.write("</classes>\n</package>\n</packages>\n</coverage>\n");
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleContext;
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * The coverage of a single {@link TruffleContext}, recorded if the instrument runs
+ * {@link SimpleCoverageInstrument#PER_CONTEXT per context}.
+ *
+ * Contexts of a shared engine share their ASTs, and thus our {@link CoverageNode}s, so a node can
+ * not hold any state of a context. Instead each context has a {@link ContextCoverage} in a
+ * {@link com.oracle.truffle.api.ContextLocal context local} of the instrument. Loaded sections are
+ * still only tracked in the global {@link Coverage} of their source, and a context only keeps the
+ * ids of the sections it covered in a {@link SectionSet} per {@link Coverage}. The sets are found
+ * by the {@link Coverage#index index} of the coverage, so checking whether a section was already
+ * covered in the current context is a few array reads and does not invalidate compiled code.
+ *
+ * The sets are created on first use, while other threads of the context may be reading the array
+ * that holds them, so the array is an {@link AtomicReferenceArray} that publishes each new set
+ * safely.
+ */
+public final class ContextCoverage {
+
+    private final SimpleCoverageInstrument instrument;
+    private final TruffleContext context;
+    private volatile AtomicReferenceArray<SectionSet> covered = new AtomicReferenceArray<>(0);
+
+    ContextCoverage(SimpleCoverageInstrument instrument, TruffleContext context) {
+        this.instrument = instrument;
+        this.context = context;
+    }
+
+    /**
+     * @return the context whose coverage this is.
+     */
+    public TruffleContext getContext() {
+        return context;
+    }
+
+    boolean isCovered(Coverage coverage, int sectionId) {
+        final SectionSet sections = sectionsOf(coverage);
+        return sections != null && sections.contains(sectionId);
+    }
+
+    @TruffleBoundary
+    void addCovered(Coverage coverage, int sectionId) {
+        SectionSet sections = sectionsOf(coverage);
+        if (sections == null) {
+            sections = createSections(coverage);
+        }
+        sections.add(sectionId);
+    }
+
+    /**
+     * Forgets which sections were covered in this context.
+     */
+    synchronized void reset() {
+        covered = new AtomicReferenceArray<>(0);
+    }
+
+    private SectionSet sectionsOf(Coverage coverage) {
+        final AtomicReferenceArray<SectionSet> sets = covered;
+        return coverage.index < sets.length() ? sets.get(coverage.index) : null;
+    }
+
+    private synchronized SectionSet createSections(Coverage coverage) {
+        final int index = coverage.index;
+        AtomicReferenceArray<SectionSet> sets = covered;
+        if (index >= sets.length()) {
+            final AtomicReferenceArray<SectionSet> grown = new AtomicReferenceArray<>(Math.max(index + 1, sets.length() * 2));
+            for (int i = 0; i < sets.length(); i++) {
+                grown.set(i, sets.get(i));
+            }
+            sets = grown;
+            covered = grown;
+        }
+        SectionSet sections = sets.get(index);
+        if (sections == null) {
+            sections = new SectionSet();
+            sets.set(index, sections);
+        }
+        return sections;
+    }
+
+    /**
+     * @param source a {@link Source}
+     * @return the lines of the source that are spanned by at least one loaded
+     *         {@link com.oracle.truffle.api.source.SourceSection} that was not covered in this
+     *         context. Sections loaded by other contexts sharing the code are included. Empty if
+     *         no section of the source was loaded.
+     */
+    public BitSet nonCoveredLines(Source source) {
+        final Coverage coverage = instrument.getLoadedCoverage(source);
+        return coverage == null ? new BitSet() : coverage.nonCoveredLines(coveredSections(coverage));
+    }
+
+    /**
+     * @param source a {@link Source}
+     * @return the loaded lines of the source that are not spanned by any section that was not
+     *         covered in this context. Empty if no section of the source was loaded.
+     */
+    public BitSet coveredLines(Source source) {
+        final Coverage coverage = instrument.getLoadedCoverage(source);
+        return coverage == null ? new BitSet() : coverage.coveredLines(coveredSections(coverage));
+    }
+
+    public Set<Integer> nonCoveredLineNumbers(Source source) {
+        return Coverage.toSet(nonCoveredLines(source));
+    }
+
+    private SectionSet coveredSections(Coverage coverage) {
+        final SectionSet sections = sectionsOf(coverage);
+        return sections != null ? sections : new SectionSet();
+    }
+}
@@ -40,51 +40,953 @@
  */
 package com.oracle.truffle.st;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.oracle.truffle.api.source.Source;
 import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
 
 /**
  * Contains per {@link com.oracle.truffle.api.source.Source} coverage by keeping track of loaded and
  * covered {@link com.oracle.truffle.api.source.SourceSection}s.
+ *
+ * Each loaded {@link SourceSection} is given a dense integer id when it is
+ * {@link #addLoaded(SourceSection, Granularity, String) registered}. Covered sections are
+ * recorded by adding that id to a {@link SectionSet}, so {@link #addCovered(int, Granularity) recording a covered section} needs no locking,
+ * hashing or allocation. The
+ * registry of loaded sections is only touched while loading code or computing results, and is
+ * guarded by this object's monitor.
+ *
+ * A coverage does not keep references to its {@link Source} or {@link SourceSection}s. Sections
+ * are identified by their character range, and only their character and line ranges are stored,
+ * in primitive arrays. The coverage is created for a {@link SourceKey}, and only keeps that key and
+ * the line count of the source. This lets the instrument release sources that are no longer used and keep
+ * a compact {@link #summarize() summary} of their coverage instead.
+ *
+ * Line information is kept in primitive form: the start and end line of every section are stored
+ * in {@code int} arrays and the set of loaded lines is a {@link BitSet} updated as sections are
+ * loaded. The {@link BitSet} views ({@link #loadedLines()}, {@link #nonCoveredLines()} and
+ * {@link #coveredLines()}) should be preferred over the {@link Set} based ones for large sources,
+ * as they do not box each line number.
+ *
+ * Each section is loaded at a {@link Granularity}, e.g. as a statement or as a whole function, and
+ * the same range may be loaded at several granularities, so the granularity is part of the key of
+ * a section. A line is covered once every section spanning it was executed. Root sections span
+ * the blank lines and comments of a function too, so they are only considered for the line level
+ * results of a source that has no finer sections, e.g. if only functions are recorded.
+ *
+ * Code is loaded a section at a time, and a large source has tens of thousands of sections. Rather
+ * than taking our monitor for each of them, the loading thread collects the sections of a source
+ * in a {@link LoadBatch} without any locking, and they are registered in bulk, with storage grown
+ * once for the whole batch. A batch is registered when the loading thread moves on to another
+ * source or fills it, and any query drains the open batches first, so results never miss loaded
+ * sections.
+ *
+ * Queries about a single line or character range, e.g. from a tool showing the coverage of the
+ * code under the cursor, do not look at every section. They use a {@link SectionIndex} of the
+ * ranges of the sections, which finds the sections overlapping a range in logarithmic time. The
+ * character ranges also allow column accurate results, which matter for minified code, where a
+ * whole program is on one line.
+ *
+ * When the instrument runs in {@link SimpleCoverageInstrument.Mode#COUNTS counts} mode, each
+ * section also gets a {@link LongAdder} counting how many times it was executed. A
+ * {@link LongAdder} spreads concurrent increments over per-thread cells, so threads executing the
+ * same statement do not contend on a single counter. The cells are only summed when the counts
+ * are read.
  */
 public final class Coverage {
-    private final Set<SourceSection> loaded = new HashSet<>();
-    private final Set<SourceSection> covered = new HashSet<>();
 
-    void addCovered(SourceSection sourceSection) {
-        covered.add(sourceSection);
+    private final SourceKey key;
+    /**
+     * Identifies this coverage within the instrument, so that a {@link ContextCoverage} can find
+     * its covered sections without hashing.
+     */
+    final int index;
+    private final int lineCount;
+
+    /**
+     * The number of loaded {@link Source}s with our {@link #key}. Guarded by the instrument's
+     * coverage map.
+     */
+    int liveSources;
+
+    /**
+     * An open addressing table from the {@link #sectionKey(int, int, Granularity) key} of a
+     * section to its id plus one, so that zero marks an empty slot. Each slot is a key followed by
+     * an id, in a single array that is only replaced when it grows and whose slots are written once,
+     * so that {@link #findLoaded(SourceSection, Granularity)} can read it without our monitor.
+     */
+    private volatile long[] sectionTable = new long[64];
+    private int sectionCount;
+    private int[] charIndexes = new int[16];
+    private int[] charEndIndexes = new int[16];
+    private int[] startLines = new int[16];
+    private int[] endLines = new int[16];
+    private byte[] granularities = new byte[16];
+    /**
+     * The name of each {@link Granularity#ROOT root} section, allocated once the first one is
+     * loaded.
+     */
+    private String[] names;
+    private final BitSet loadedLines = new BitSet();
+    /**
+     * The lines spanned by {@link Granularity#ROOT root} sections, only used while all sections
+     * are roots.
+     */
+    private final BitSet rootLines = new BitSet();
+    private int rootCount;
+    private LongAdder[] counters;
+    private final SectionSet covered = new SectionSet();
+    /**
+     * The number of sections loaded and covered at each {@link Granularity}, kept as sections are
+     * registered and covered, so that they are read without looking at the sections.
+     */
+    private final int[] loadedCounts = new int[Granularity.VALUES.length];
+    private final AtomicIntegerArray coveredCounts = new AtomicIntegerArray(Granularity.VALUES.length);
+    /**
+     * The {@link SectionIndex indexes} of the character and line ranges of the sections that are
+     * considered for the line level results, built by the first query after a section was loaded.
+     */
+    private SectionIndex charRangeIndex;
+    private SectionIndex lineRangeIndex;
+    /**
+     * The {@link LoadBatch batches} whose sections may not all be registered yet.
+     */
+    private final List<LoadBatch> openBatches = new ArrayList<>(2);
+
+    /**
+     * The region of the {@link CoverageFile} this coverage is mirrored to, or {@code null}. Set
+     * before the coverage is shared.
+     */
+    private CoverageFile.Region region;
+
+    /**
+     * Whether sections were loaded or covered since the {@link SnapshotExporter} last
+     * {@link #takeModified() looked}. Set after the section is recorded, so the exporter, which
+     * clears it before it reads the sections, never misses a change.
+     */
+    private volatile boolean modified;
+
+    Coverage(SourceKey key, int index, int lineCount, boolean counting) {
+        this.key = key;
+        this.index = index;
+        this.lineCount = lineCount;
+        this.counters = counting ? new LongAdder[16] : null;
     }
 
-    void addLoaded(SourceSection sourceSection) {
-        loaded.add(sourceSection);
+    SourceKey getKey() {
+        return key;
     }
 
-    private Set<SourceSection> nonCoveredSections() {
-        final HashSet<SourceSection> nonCovered = new HashSet<>();
-        nonCovered.addAll(loaded);
-        nonCovered.removeAll(covered);
-        return nonCovered;
+    void mapTo(CoverageFile.Region fileRegion) {
+        this.region = fileRegion;
     }
 
-    Set<Integer> nonCoveredLineNumbers() {
-        Set<Integer> linesNotCovered = new HashSet<>();
-        for (SourceSection ss : nonCoveredSections()) {
-            for (int i = ss.getStartLine(); i <= ss.getEndLine(); i++) {
-                linesNotCovered.add(i);
+    /**
+     * @return the path of the source, or its name if it does not have a path.
+     */
+    public String getName() {
+        return key.name;
+    }
+
+    /**
+     * @return a hash of the characters of the source.
+     */
+    public long getContentHash() {
+        return key.contentHash;
+    }
+
+    /**
+     * @return the number of lines of the source.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * The key of a section is its character range and granularity. The length of a section is
+     * stored in the low 30 bits, which leaves room for the granularity. The sign bit is always set,
+     * so that a key is never zero and a slot whose key a thread does not see yet never matches.
+     */
+    private static long sectionKey(int charIndex, int charLength, Granularity granularity) {
+        return Long.MIN_VALUE | ((long) charIndex << 32) | ((long) granularity.ordinal() << 30) | (charLength & 0x3FFFFFFFL);
+    }
+
+    /**
+     * @return the index of the key in the table, or of the empty slot it would go in. The id of
+     *         the section follows it.
+     */
+    private static int findSlot(long[] table, long key) {
+        final int mask = table.length / 2 - 1;
+        int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (table[slot * 2 + 1] != 0 && table[slot * 2] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot * 2;
+    }
+
+    /**
+     * @return the id of the section at the first granularity it was loaded at, or {@code -1}.
+     */
+    private int lookup(SourceSection sourceSection) {
+        final long[] table = sectionTable;
+        for (Granularity granularity : Granularity.VALUES) {
+            final int id = (int) table[findSlot(table, sectionKey(sourceSection.getCharIndex(), sourceSection.getCharLength(), granularity)) + 1] - 1;
+            if (id >= 0) {
+                return id;
             }
         }
-        return linesNotCovered;
+        return -1;
     }
 
-    Set<Integer> loadedLineNumbers() {
-        Set<Integer> loadedLines = new HashSet<>();
-        for (SourceSection ss : loaded) {
-            for (int i = ss.getStartLine(); i <= ss.getEndLine(); i++) {
-                loadedLines.add(i);
+    /**
+     * Looks up the id of a registered section without taking our monitor, for the
+     * {@link CoverageEventFactory}, which usually creates nodes for sections the
+     * {@link GatherSourceSectionsListener} already registered.
+     *
+     * @return the id of the section, or {@code -1} if it is not registered yet, or not visible to
+     *         this thread yet, in which case it must be {@link #addLoaded(SourceSection, Granularity, String)
+     *         registered}.
+     */
+    int findLoaded(SourceSection sourceSection, Granularity granularity) {
+        final long[] table = sectionTable;
+        return (int) table[findSlot(table, sectionKey(sourceSection.getCharIndex(), sourceSection.getCharLength(), granularity)) + 1] - 1;
+    }
+
+    private void growSectionTable(int slots) {
+        final long[] old = sectionTable;
+        final long[] table = new long[slots * 2];
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i + 1] != 0) {
+                final int slot = findSlot(table, old[i]);
+                table[slot] = old[i];
+                table[slot + 1] = old[i + 1];
+            }
+        }
+        sectionTable = table;
+    }
+
+    /**
+     * Registers a loaded {@link SourceSection}. Registering the same section again returns the id it
+     * was given the first time.
+     *
+     * @param name the name of the function if the granularity is {@link Granularity#ROOT root},
+     *            otherwise ignored
+     * @return the dense id of the section within this source
+     */
+    synchronized int addLoaded(SourceSection sourceSection, Granularity granularity, String name) {
+        return addLoaded(sourceSection.getCharIndex(), sourceSection.getCharLength(), sourceSection.getStartLine(), sourceSection.getEndLine(), granularity, name);
+    }
+
+    /**
+     * Registers a section by its ranges, e.g. one read from a {@link CoverageSnapshot}.
+     *
+     * @return the dense id of the section within this source
+     */
+    synchronized int addLoaded(int charIndex, int charLength, int startLine, int endLine, Granularity granularity, String name) {
+        final long key = sectionKey(charIndex, charLength, granularity);
+        final long[] table = sectionTable;
+        final int slot = findSlot(table, key);
+        if (table[slot + 1] != 0) {
+            return (int) table[slot + 1] - 1;
+        }
+        final int id = sectionCount++;
+        table[slot] = key;
+        table[slot + 1] = id + 1;
+        if (sectionCount * 4 > table.length) {
+            growSectionTable(table.length);
+        }
+        if (id == startLines.length) {
+            growSections(id * 2);
+        }
+        charIndexes[id] = charIndex;
+        charEndIndexes[id] = charIndex + charLength;
+        startLines[id] = startLine;
+        endLines[id] = endLine;
+        granularities[id] = (byte) granularity.ordinal();
+        loadedCounts[granularity.ordinal()]++;
+        if (granularity == Granularity.ROOT) {
+            if (names == null) {
+                names = new String[startLines.length];
+            }
+            names[id] = name;
+            rootLines.set(startLines[id], endLines[id] + 1);
+            rootCount++;
+        } else {
+            loadedLines.set(startLines[id], endLines[id] + 1);
+        }
+        charRangeIndex = null;
+        lineRangeIndex = null;
+        if (counters != null) {
+            counters[id] = new LongAdder();
+        }
+        if (region != null) {
+            region.addLoaded(id, startLines[id], endLines[id], charIndexes[id], charEndIndexes[id] - charIndexes[id]);
+        }
+        modified = true;
+        return id;
+    }
+
+    /**
+     * Marks the section with the given id as covered. This is safe to call from any thread without
+     * holding a lock.
+     *
+     * @param granularity the granularity the section was loaded at, passed by the caller so that
+     *            we do not read the sections without holding our monitor
+     * @return {@code true} if the section was not covered before this call
+     */
+    boolean addCovered(int sectionId, Granularity granularity) {
+        if (!covered.add(sectionId)) {
+            return false;
+        }
+        coveredCounts.incrementAndGet(granularity.ordinal());
+        if (region != null) {
+            region.addCovered(sectionId);
+        }
+        modified = true;
+        return true;
+    }
+
+    /**
+     * Forgets which sections were covered and how often they were executed, but keeps the loaded
+     * sections and their ids.
+     */
+    synchronized void reset() {
+        covered.clear();
+        for (int i = 0; i < coveredCounts.length(); i++) {
+            coveredCounts.set(i, 0);
+        }
+        if (counters != null) {
+            for (int id = 0; id < sectionCount; id++) {
+                counters[id].reset();
+            }
+        }
+        if (region != null) {
+            region.reset(sectionCount);
+        }
+    }
+
+    private void growSections(int length) {
+        charIndexes = Arrays.copyOf(charIndexes, length);
+        charEndIndexes = Arrays.copyOf(charEndIndexes, length);
+        startLines = Arrays.copyOf(startLines, length);
+        endLines = Arrays.copyOf(endLines, length);
+        granularities = Arrays.copyOf(granularities, length);
+        if (names != null) {
+            names = Arrays.copyOf(names, length);
+        }
+        if (counters != null) {
+            counters = Arrays.copyOf(counters, length);
+        }
+    }
+
+    /**
+     * Grows the storage of sections and the key table at once, so that the given number of
+     * sections fit without growing either again.
+     */
+    private void ensureCapacity(int sections) {
+        if (sections > startLines.length) {
+            growSections(Math.max(sections, startLines.length * 2));
+        }
+        if (sections * 4 > sectionTable.length) {
+            growSectionTable(Integer.highestOneBit(sections * 2 - 1) << 1);
+        }
+    }
+
+    /**
+     * Opens a batch for a thread that is about to load sections of our source.
+     *
+     * @param owner the listener of the loading thread, which may be disposed before the thread
+     *            closes the batch
+     * @param previous the {@link LoadBatch#close() closed} batch the thread loaded sections into
+     *            before, whose storage is reused, or {@code null}
+     */
+    synchronized LoadBatch openBatch(GatherSourceSectionsListener owner, Granularity granularity, LoadBatch previous) {
+        final LoadBatch batch = new LoadBatch(this, owner, granularity, previous);
+        openBatches.add(batch);
+        return batch;
+    }
+
+    /**
+     * Registers the sections of all open batches that are not registered yet. Called with our
+     * monitor held, before anything reads the registered sections.
+     */
+    private void drainBatches() {
+        for (int i = 0; i < openBatches.size(); i++) {
+            drain(openBatches.get(i));
+        }
+    }
+
+    private void drain(LoadBatch batch) {
+        final int size = batch.size;
+        if (batch.registered == size) {
+            return;
+        }
+        ensureCapacity(sectionCount + size - batch.registered);
+        final int[] ranges = batch.ranges;
+        for (int i = batch.registered; i < size; i++) {
+            addLoaded(ranges[i * 4], ranges[i * 4 + 1], ranges[i * 4 + 2], ranges[i * 4 + 3], batch.granularity, batch.names == null ? null : batch.names[i]);
+        }
+        batch.registered = size;
+    }
+
+    synchronized void closeBatch(LoadBatch batch) {
+        drain(batch);
+        openBatches.remove(batch);
+    }
+
+    /**
+     * Closes the batches of {@link GatherSourceSectionsListener#isDisposed() disposed} listeners,
+     * e.g. once the instrument is {@link SimpleCoverageInstrument#stop() stopped}. Their threads
+     * are not notified of loaded sections any more, so they would never close them.
+     */
+    synchronized void closeDisposedBatches() {
+        for (int i = openBatches.size() - 1; i >= 0; i--) {
+            final LoadBatch batch = openBatches.get(i);
+            if (batch.owner.isDisposed()) {
+                drain(batch);
+                openBatches.remove(i);
             }
         }
-        return loadedLines;
+    }
+
+    /**
+     * The sections of our source loaded by one thread, at one granularity, that are registered in
+     * bulk. Only the loading thread {@link #add(SourceSection, String) adds} sections, without
+     * locking. The size is volatile, so a thread that drains the batch with the monitor of the
+     * coverage held sees all sections added before the size was written, and the storage they
+     * were written to.
+     *
+     * A batch starts small and grows as sections are added, so a thread that loads a few sections
+     * of many sources, e.g. when functions are parsed lazily, does not allocate storage for many
+     * sections each time it moves on to another source. Once closed, its storage is reused by the
+     * next batch of the same thread.
+     */
+    static final class LoadBatch {
+
+        /**
+         * The smallest and largest number of sections of a batch.
+         */
+        private static final int MIN_SIZE = 64;
+        private static final int MAX_SIZE = 8192;
+
+        private final Coverage coverage;
+        private final GatherSourceSectionsListener owner;
+        private final Granularity granularity;
+        /**
+         * The character index, character length, start line and end line of each section.
+         */
+        private int[] ranges;
+        /**
+         * The function names of {@link Granularity#ROOT root} sections.
+         */
+        private String[] names;
+        private volatile int size;
+        /**
+         * The number of sections that are registered. Guarded by the coverage.
+         */
+        private int registered;
+
+        private LoadBatch(Coverage coverage, GatherSourceSectionsListener owner, Granularity granularity, LoadBatch previous) {
+            this.coverage = coverage;
+            this.owner = owner;
+            this.granularity = granularity;
+            if (previous != null && previous.granularity == granularity) {
+                this.ranges = previous.ranges;
+                this.names = previous.names;
+            } else {
+                this.ranges = new int[MIN_SIZE * 4];
+                this.names = granularity == Granularity.ROOT ? new String[MIN_SIZE] : null;
+            }
+        }
+
+        Coverage getCoverage() {
+            return coverage;
+        }
+
+        /**
+         * @return {@code false} if the batch is full, in which case the section was not added.
+         */
+        boolean add(SourceSection sourceSection, String name) {
+            final int index = size;
+            if (index * 4 == ranges.length) {
+                if (index == MAX_SIZE) {
+                    return false;
+                }
+                // Written before the size, like the sections.
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                if (names != null) {
+                    names = Arrays.copyOf(names, names.length * 2);
+                }
+            }
+            ranges[index * 4] = sourceSection.getCharIndex();
+            ranges[index * 4 + 1] = sourceSection.getCharLength();
+            ranges[index * 4 + 2] = sourceSection.getStartLine();
+            ranges[index * 4 + 3] = sourceSection.getEndLine();
+            if (names != null) {
+                names[index] = name;
+            }
+            size = index + 1;
+            return true;
+        }
+
+        /**
+         * Registers the remaining sections. The batch must not be used afterwards, but its storage
+         * may be {@link Coverage#openBatch(GatherSourceSectionsListener, Granularity, LoadBatch)
+         * reused}.
+         */
+        void close() {
+            coverage.closeBatch(this);
+        }
+    }
+
+    /**
+     * @return whether sections were loaded or covered since the last call.
+     */
+    synchronized boolean takeModified() {
+        drainBatches();
+        if (!modified) {
+            return false;
+        }
+        modified = false;
+        return true;
+    }
+
+    boolean isCovered(int sectionId) {
+        return covered.contains(sectionId);
+    }
+
+    /**
+     * @return the counter of the section with the given id, or {@code null} if this coverage does
+     *         not count executions.
+     */
+    LongAdder getCounter(int sectionId) {
+        if (counters == null) {
+            // Whether we count never changes, so nodes that do not count take no lock.
+            return null;
+        }
+        synchronized (this) {
+            return counters[sectionId];
+        }
+    }
+
+    /**
+     * Receives the ranges and results of each section of a coverage. The name is only known for
+     * {@link Granularity#ROOT root} sections, and may be {@code null} for those too.
+     */
+    interface SectionConsumer {
+        void accept(int charIndex, int charLength, int startLine, int endLine, Granularity granularity, String name, boolean isCovered, long count);
+    }
+
+    /**
+     * Passes each loaded section to the consumer, in the order they were loaded. The count is
+     * {@code 0} if this coverage does not {@link #isCounting() count} executions.
+     */
+    synchronized void forEachSection(SectionConsumer consumer) {
+        drainBatches();
+        final int count = sectionCount;
+        for (int id = 0; id < count; id++) {
+            consumer.accept(charIndexes[id], charEndIndexes[id] - charIndexes[id], startLines[id], endLines[id], granularityOf(id), nameOf(id), isCovered(id), counters == null ? 0 : counters[id].sum());
+        }
+    }
+
+    /**
+     * Reads our fields without taking our monitor, as the estimate is read periodically for
+     * {@link CoverageEvents.Statistics statistics} and must not hold up threads that load code. It
+     * may therefore miss the latest changes.
+     *
+     * @return a rough estimate of the bytes used for the sections, not counting the names of
+     *         functions.
+     */
+    long estimatedBytes() {
+        final long tableBytes = sectionTable.length * 8L;
+        final String[] currentNames = names;
+        final LongAdder[] currentCounters = counters;
+        final long sectionBytes = charIndexes.length * 17L + (currentNames == null ? 0 : currentNames.length * 8L) + (currentCounters == null ? 0 : currentCounters.length * 40L);
+        final SectionIndex charIndex = charRangeIndex;
+        final SectionIndex lineIndex = lineRangeIndex;
+        final long indexBytes = (charIndex == null ? 0 : charIndex.estimatedBytes()) + (lineIndex == null ? 0 : lineIndex.estimatedBytes());
+        return 128 + tableBytes + sectionBytes + indexBytes + covered.estimatedBytes() + (loadedLines.size() + rootLines.size()) / 8;
+    }
+
+    /**
+     * Passes a single loaded section to the consumer, like {@link #forEachSection(SectionConsumer)}.
+     */
+    synchronized void visitSection(int sectionId, SectionConsumer consumer) {
+        drainBatches();
+        consumer.accept(charIndexes[sectionId], charEndIndexes[sectionId] - charIndexes[sectionId], startLines[sectionId], endLines[sectionId], granularityOf(sectionId), nameOf(sectionId), isCovered(sectionId),
+                        counters == null ? 0 : counters[sectionId].sum());
+    }
+
+    /**
+     * Adds the sections of another coverage of the same source, and their results. Two coverages
+     * must not be added to each other at the same time, as each locks the other.
+     */
+    void addAll(Coverage other) {
+        other.forEachSection(this::add);
+    }
+
+    /**
+     * Adds a section and its results, e.g. when merging coverages of the same source.
+     */
+    void add(int charIndex, int charLength, int startLine, int endLine, Granularity granularity, String name, boolean isCovered, long count) {
+        final int id = addLoaded(charIndex, charLength, startLine, endLine, granularity, name);
+        if (isCovered) {
+            addCovered(id, granularity);
+        }
+        if (count != 0 && counters != null) {
+            getCounter(id).add(count);
+        }
+    }
+
+    /**
+     * Writes the current execution counts to the {@link CoverageFile}, if this coverage is
+     * mirrored to one and counts executions.
+     */
+    synchronized void publishCounts() {
+        drainBatches();
+        if (region != null && counters != null) {
+            region.publishCounts(counters, sectionCount);
+        }
+    }
+
+    /**
+     * @return the number of loaded {@link SourceSection}s.
+     */
+    public synchronized int loadedCount() {
+        drainBatches();
+        return sectionCount;
+    }
+
+    /**
+     * @return the number of covered {@link SourceSection}s.
+     */
+    public int coveredCount() {
+        return covered.count();
+    }
+
+    /**
+     * @return the number of {@link SourceSection}s loaded at the granularity.
+     */
+    public synchronized int loadedCount(Granularity granularity) {
+        drainBatches();
+        return loadedCounts[granularity.ordinal()];
+    }
+
+    /**
+     * @return the number of covered {@link SourceSection}s loaded at the granularity.
+     */
+    public int coveredCount(Granularity granularity) {
+        return coveredCounts.get(granularity.ordinal());
+    }
+
+    private Granularity granularityOf(int id) {
+        return Granularity.VALUES[granularities[id]];
+    }
+
+    private String nameOf(int id) {
+        return names == null ? null : names[id];
+    }
+
+    /**
+     * Computes the character ranges of covered sections of a granularity whose instrumentation can
+     * be removed.
+     *
+     * A range is only included if it does not overlap a loaded but not yet covered section of the
+     * granularity, since an instrumentation filter excluding the range would also exclude that
+     * section. Like the
+     * {@link com.oracle.truffle.api.instrumentation.SourceSectionFilter.IndexRange index ranges} of
+     * a filter, a range is treated as overlapping a section that ends exactly where the range
+     * starts.
+     *
+     * @return sorted, non-overlapping {@code [start, end)} pairs of character indices
+     */
+    synchronized int[] removableRanges(Granularity granularity) {
+        drainBatches();
+        final int count = sectionCount;
+        final long[] uncovered = new long[count];
+        final long[] removable = new long[count];
+        int uncoveredCount = 0;
+        int removableCount = 0;
+        for (int id = 0; id < count; id++) {
+            if (granularities[id] != granularity.ordinal()) {
+                continue;
+            }
+            if (isCovered(id)) {
+                removable[removableCount++] = range(charIndexes[id], charEndIndexes[id]);
+            } else {
+                uncovered[uncoveredCount++] = range(charIndexes[id], charEndIndexes[id] + 1);
+            }
+        }
+        final int[] blocked = mergeRanges(uncovered, uncoveredCount);
+        int candidates = 0;
+        for (int i = 0; i < removableCount; i++) {
+            final int start = (int) (removable[i] >>> 32);
+            final int end = (int) removable[i];
+            if (!overlaps(blocked, start, end)) {
+                removable[candidates++] = removable[i];
+            }
+        }
+        return mergeRanges(removable, candidates);
+    }
+
+    private static long range(int start, int end) {
+        return ((long) start << 32) | end;
+    }
+
+    private static int[] mergeRanges(long[] ranges, int length) {
+        Arrays.sort(ranges, 0, length);
+        final int[] merged = new int[length * 2];
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            final int start = (int) (ranges[i] >>> 32);
+            final int end = (int) ranges[i];
+            if (size > 0 && start <= merged[size - 1]) {
+                merged[size - 1] = Math.max(merged[size - 1], end);
+            } else {
+                merged[size++] = start;
+                merged[size++] = end;
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * @param ranges sorted, non-overlapping {@code [start, end)} pairs
+     * @return {@code true} if any of the ranges overlaps {@code [start, end)}
+     */
+    static boolean overlaps(int[] ranges, int start, int end) {
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        int candidate = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (ranges[mid * 2] < end) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return candidate >= 0 && ranges[candidate * 2 + 1] > start;
+    }
+
+    /**
+     * @return {@code true} if execution counts are recorded for this source.
+     */
+    public boolean isCounting() {
+        return counters != null;
+    }
+
+    /**
+     * @param sourceSection a loaded {@link SourceSection}
+     * @return how many times the section was executed, {@code 0} if it was never loaded, or
+     *         {@code -1} if this coverage does not {@link #isCounting() count} executions.
+     */
+    public synchronized long getCount(SourceSection sourceSection) {
+        drainBatches();
+        if (counters == null) {
+            return -1;
+        }
+        final int id = lookup(sourceSection);
+        return id < 0 ? 0 : counters[id].sum();
+    }
+
+    /**
+     * The execution count of a line is the highest count of the sections spanning it, so that a
+     * line inside a loop reports the iterations of the loop body rather than those of the
+     * enclosing statement.
+     *
+     * The sections are visited from the highest count down, so each line is written once, by the
+     * first section spanning it, rather than once for every section spanning it. Lines that are
+     * already written are skipped a word of bits at a time, so nested sections cost little.
+     *
+     * @return the execution count of each line indexed by line number, or {@code null} if this
+     *         coverage does not {@link #isCounting() count} executions.
+     */
+    public synchronized long[] lineCounts() {
+        drainBatches();
+        if (counters == null) {
+            return null;
+        }
+        final long[] counts = new long[lines().length()];
+        final int count = sectionCount;
+        final long[] sums = new long[count];
+        for (int id = 0; id < count; id++) {
+            sums[id] = spansLines(id) ? counters[id].sum() : 0;
+        }
+        // Counts do not fit next to an id in a long, their rank among all counts does.
+        final long[] sorted = sums.clone();
+        Arrays.sort(sorted);
+        final long[] order = new long[count];
+        for (int id = 0; id < count; id++) {
+            order[id] = ((long) Arrays.binarySearch(sorted, sums[id]) << 32) | id;
+        }
+        Arrays.sort(order);
+        final BitSet written = new BitSet(counts.length);
+        for (int i = count - 1; i >= 0; i--) {
+            final int id = (int) order[i];
+            if (sums[id] == 0) {
+                break;
+            }
+            final int end = endLines[id] + 1;
+            for (int line = written.nextClearBit(startLines[id]); line < end; line = written.nextClearBit(line + 1)) {
+                counts[line] = sums[id];
+            }
+            written.set(startLines[id], end);
+        }
+        return counts;
+    }
+
+    private void ensureIndexed() {
+        drainBatches();
+        if (charRangeIndex != null) {
+            return;
+        }
+        final int count = sectionCount;
+        final int[] ids = new int[count];
+        final int[] lineEnds = new int[count];
+        int size = 0;
+        for (int id = 0; id < count; id++) {
+            lineEnds[id] = endLines[id] + 1;
+            if (spansLines(id)) {
+                ids[size++] = id;
+            }
+        }
+        lineRangeIndex = new SectionIndex(startLines, lineEnds, ids.clone(), size);
+        charRangeIndex = new SectionIndex(charIndexes, charEndIndexes, ids, size);
+    }
+
+    /**
+     * Like {@link #coveredLines()}, but only looks at the sections spanning the line.
+     *
+     * @return {@code true} if at least one loaded {@link SourceSection} spans the line and all of
+     *         them are covered.
+     */
+    public synchronized boolean isLineCovered(int line) {
+        ensureIndexed();
+        // Counts the sections spanning the line, negated once a not covered one is found.
+        final int[] spanning = {0};
+        lineRangeIndex.forEachOverlapping(line, line + 1, id -> {
+            if (spanning[0] >= 0) {
+                spanning[0] = isCovered(id) ? spanning[0] + 1 : -1;
+            }
+        });
+        return spanning[0] > 0;
+    }
+
+    /**
+     * A character is not covered if a loaded but not yet covered {@link SourceSection} spans it,
+     * just like a line.
+     *
+     * @return the sorted, non-overlapping {@code [start, end)} pairs of not covered character
+     *         indices within {@code [charIndex, charEndIndex)}.
+     */
+    public synchronized int[] nonCoveredRanges(int charIndex, int charEndIndex) {
+        ensureIndexed();
+        final long[][] ranges = {new long[16]};
+        final int[] size = {0};
+        charRangeIndex.forEachOverlapping(charIndex, charEndIndex, id -> {
+            if (!isCovered(id) && charEndIndexes[id] > charIndexes[id]) {
+                if (size[0] == ranges[0].length) {
+                    ranges[0] = Arrays.copyOf(ranges[0], size[0] * 2);
+                }
+                ranges[0][size[0]++] = range(Math.max(charIndexes[id], charIndex), Math.min(charEndIndexes[id], charEndIndex));
+            }
+        });
+        return mergeRanges(ranges[0], size[0]);
+    }
+
+    /**
+     * @return the sorted, non-overlapping {@code [start, end)} pairs of character indices spanned
+     *         by loaded but not yet covered {@link SourceSection}s.
+     */
+    public int[] nonCoveredRanges() {
+        return nonCoveredRanges(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the lines spanned by at least one loaded {@link SourceSection}.
+     */
+    public synchronized BitSet loadedLines() {
+        drainBatches();
+        return (BitSet) lines().clone();
+    }
+
+    private BitSet lines() {
+        return rootCount == sectionCount ? rootLines : loadedLines;
+    }
+
+    /**
+     * @return whether the section is considered for the line level results.
+     */
+    private boolean spansLines(int id) {
+        return rootCount == sectionCount || granularities[id] != Granularity.ROOT.ordinal();
+    }
+
+    /**
+     * @return the lines spanned by at least one loaded but not yet covered {@link SourceSection}.
+     */
+    public BitSet nonCoveredLines() {
+        return nonCoveredLines(covered);
+    }
+
+    /**
+     * @return the loaded lines that are not spanned by any not yet covered {@link SourceSection}.
+     */
+    public BitSet coveredLines() {
+        return coveredLines(covered);
+    }
+
+    /**
+     * @param coveredSections the ids of the covered sections, e.g. those covered by a single
+     *            {@link ContextCoverage context}
+     */
+    synchronized BitSet nonCoveredLines(SectionSet coveredSections) {
+        drainBatches();
+        final BitSet lines = new BitSet(lines().length());
+        final int count = sectionCount;
+        for (int id = 0; id < count; id++) {
+            if (spansLines(id) && !coveredSections.contains(id)) {
+                lines.set(startLines[id], endLines[id] + 1);
+            }
+        }
+        return lines;
+    }
+
+    synchronized BitSet coveredLines(SectionSet coveredSections) {
+        final BitSet lines = loadedLines();
+        lines.andNot(nonCoveredLines(coveredSections));
+        return lines;
+    }
+
+    /**
+     * @return a snapshot of this coverage that only keeps line level results.
+     */
+    public synchronized CoverageSummary summarize() {
+        return new CoverageSummary(key, lineCount, loadedLines(), nonCoveredLines(), lineCounts());
+    }
+
+    Set<Integer> nonCoveredLineNumbers() {
+        return toSet(nonCoveredLines());
+    }
+
+    Set<Integer> loadedLineNumbers() {
+        return toSet(loadedLines());
+    }
+
+    static Set<Integer> toSet(BitSet lines) {
+        final Set<Integer> set = new HashSet<>(lines.cardinality() * 2);
+        for (int i = lines.nextSetBit(0); i >= 0; i = lines.nextSetBit(i + 1)) {
+            set.add(i);
+        }
+        return set;
     }
 }
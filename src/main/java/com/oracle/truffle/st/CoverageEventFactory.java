@@ -44,29 +44,64 @@ import com.oracle.truffle.api.instrumentation.EventContext;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
 import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
 
 /**
  * A factory for nodes that track coverage
  *
  * Because we
- * {@link SimpleCoverageInstrument#enable(com.oracle.truffle.api.instrumentation.TruffleInstrument.Env)
- * attached} an instance of this factory, each time a AST node of interest is created, it is
+ * {@link SimpleCoverageInstrument#start() attached} an instance of this factory, each time a AST node of interest is created, it is
  * instrumented with a node created by this factory.
  */
 final class CoverageEventFactory implements ExecutionEventNodeFactory {
 
     private SimpleCoverageInstrument simpleCoverageInstrument;
 
-    CoverageEventFactory(SimpleCoverageInstrument simpleCoverageInstrument) {
+    /**
+     * The binding of a single source this factory was attached for, or {@code null} if the factory
+     * is attached for all sources.
+     */
+    private final SourceBinding sourceBinding;
+
+    /**
+     * The granularity of the filter this factory was attached with.
+     */
+    private final Granularity granularity;
+
+    CoverageEventFactory(SimpleCoverageInstrument simpleCoverageInstrument, SourceBinding sourceBinding, Granularity granularity) {
         this.simpleCoverageInstrument = simpleCoverageInstrument;
+        this.sourceBinding = sourceBinding;
+        this.granularity = granularity;
     }
 
     /**
+     * The section is registered with its {@link Coverage} here as well as in the
+     * {@link GatherSourceSectionsListener}, since registering is idempotent and we do not want to
+     * rely on the order in which the two are notified. Usually the listener registered it already,
+     * so it is {@link Coverage#findLoaded(SourceSection, Granularity) looked up} without taking the
+     * monitor of the coverage first.
+     *
      * @param ec context of the event, used in our case to lookup the {@link SourceSection} that our
      *            node is instrumenting.
      * @return An {@link ExecutionEventNode}
      */
     public ExecutionEventNode create(final EventContext ec) {
-        return new CoverageNode(simpleCoverageInstrument, ec.getInstrumentedSourceSection());
+        final SourceSection sourceSection = ec.getInstrumentedSourceSection();
+        final Coverage coverage = sourceBinding != null ? sourceBinding.coverage : simpleCoverageInstrument.getCoverage(sourceSection.getSource());
+        final OverheadGovernor governor = simpleCoverageInstrument.getOverheadGovernor();
+        if (governor != null) {
+            governor.countNode();
+        }
+        final CoverageStatistics statistics = simpleCoverageInstrument.getStatistics();
+        int sectionId = coverage.findLoaded(sourceSection, granularity);
+        if (sectionId < 0) {
+            final String name = granularity == Granularity.ROOT ? ec.getInstrumentedNode().getRootNode().getName() : null;
+            final long start = System.nanoTime();
+            sectionId = coverage.addLoaded(sourceSection, granularity, name);
+            statistics.addLoadedTime(System.nanoTime() - start);
+        }
+        statistics.countNodeCreated();
+        return new CoverageNode(coverage, sectionId, granularity, sourceBinding, simpleCoverageInstrument.getContextCoverageLocal(), simpleCoverageInstrument.getTestEpochs(), governor, simpleCoverageInstrument.getFirstHits(),
+                        simpleCoverageInstrument.getHotSketchLocal(), statistics);
     }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The JDK Flight Recorder events of the instrument, so that its overhead shows up in the same
+ * recordings as that of the rest of the application. Committing an event that is not enabled in a
+ * running recording costs next to nothing, so the events are always emitted if the flight recorder
+ * is {@link #AVAILABLE available}.
+ *
+ * The {@code jdk.jfr} module is optional, as a runtime image may leave it out, so no other class
+ * refers to the flight recorder, and the events are only created after checking that it is there.
+ */
+final class CoverageEvents {
+
+    private static final String CATEGORY = "Simple Code Coverage";
+
+    /**
+     * Whether the flight recorder is in the runtime and can be used.
+     */
+    static final boolean AVAILABLE = isAvailable();
+
+    private CoverageEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            return FlightRecorder.isAvailable();
+        } catch (LinkageError e) {
+            // The jdk.jfr module is not in the runtime.
+            return false;
+        }
+    }
+
+    /**
+     * Emits a {@link Statistics} event at the start and end of each recording chunk and once
+     * every second, while the instrument runs.
+     *
+     * @return the hook to remove with {@link #removePeriodic(Runnable)}, or {@code null} if the
+     *         flight recorder is not available.
+     */
+    static Runnable addPeriodic(CoverageStatistics statistics) {
+        if (!AVAILABLE) {
+            return null;
+        }
+        final Runnable hook = () -> {
+            final Statistics event = new Statistics();
+            event.sectionsLoaded = statistics.getSectionsLoaded();
+            event.nodesCreated = statistics.getNodesCreated();
+            event.firstHits = statistics.getFirstHits();
+            event.addLoadedTime = statistics.getAddLoadedNanos();
+            event.addCoveredTime = statistics.getAddCoveredNanos();
+            event.sourceCount = statistics.getSourceCount();
+            event.estimatedBytes = statistics.getEstimatedBytes();
+            event.commit();
+        };
+        try {
+            FlightRecorder.addPeriodicEvent(Statistics.class, hook);
+        } catch (IllegalStateException | LinkageError e) {
+            // The flight recorder could not be initialized.
+            return null;
+        }
+        return hook;
+    }
+
+    static void removePeriodic(Runnable hook) {
+        FlightRecorder.removePeriodicEvent(hook);
+    }
+
+    @Name("com.oracle.truffle.st.Statistics")
+    @Label("Coverage Statistics")
+    @Description("The work done by the coverage instrument so far")
+    @Category(CATEGORY)
+    @Period("1 s")
+    @StackTrace(false)
+    static final class Statistics extends Event {
+
+        @Label("Sections Loaded") long sectionsLoaded;
+        @Label("Nodes Created") long nodesCreated;
+        @Label("First Hits") long firstHits;
+        @Label("Add Loaded Time") @Timespan(Timespan.NANOSECONDS) long addLoadedTime;
+        @Label("Add Covered Time") @Timespan(Timespan.NANOSECONDS) long addCoveredTime;
+        @Label("Sources") int sourceCount;
+        @Label("Estimated Retained Size") @DataAmount long estimatedBytes;
+    }
+
+    @Name("com.oracle.truffle.st.Report")
+    @Label("Coverage Report")
+    @Description("Writing the coverage report")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Report extends Event {
+
+        @Label("Format") String format;
+        @Label("Sources") int sourceCount;
+        @Label("Sources Written") int written;
+    }
+
+    @Name("com.oracle.truffle.st.Finalize")
+    @Label("Coverage Finalize")
+    @Description("Finalizing the coverage instrument, including its report")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Finalize extends Event {
+    }
+}
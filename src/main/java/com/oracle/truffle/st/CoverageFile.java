@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A memory-mapped file that mirrors the coverage of the instrument while it runs, so that another
+ * process can read the live coverage at any moment, without talking to the instrument.
+ *
+ * The file is mapped once with a fixed {@link SimpleCoverageInstrument#MAPPED_FILE_SIZE size}
+ * and only ever appended to. Once it is full, sources and sections loaded later are not mirrored,
+ * their coverage is still recorded in memory. All values are little-endian.
+ *
+ * <pre>
+ * header (64 bytes)
+ *   0  long  magic "STCOVMAP"
+ *   8  int   version (1)
+ *   12 int   flags, 1 if execution counts are recorded
+ *   16 long  end of the records, written last, records before it are complete
+ * records, each 8 byte aligned and starting with
+ *   0  int   type
+ *   4  int   length in bytes
+ * source record (type 1), one per {@link Coverage}
+ *   8  int   index of the coverage
+ *   12 int   line count
+ *   16 long  content hash
+ *   24 int   length of the name
+ *   28 byte[] name, UTF-8
+ * block record (type 2), for 1024 sections of a coverage
+ *   8  int   index of the coverage
+ *   12 int   id of the first section
+ *   16 int   number of sections in the block, written after their ranges
+ *   24 long[16] covered bits, the bit of a section is set once it is covered
+ *   152 int[1024][4] start line, end line, char index and char length of each section
+ *   16536 long[1024] execution count of each section, if counting
+ * </pre>
+ *
+ * A section is marked as covered when it is first executed, by an atomic operation on the mapped
+ * memory. This happens in the interpreter anyway, so compiled code does not pay for the file.
+ * Execution counts change on every execution, so they are only written
+ * {@link SimpleCoverageInstrument#MAPPED_FILE_INTERVAL periodically} by a thread of the instrument.
+ *
+ * {@link #read(Path)} reads a file written by the instrument, while the instrument is still
+ * writing it.
+ */
+public final class CoverageFile {
+
+    private static final long MAGIC = 0x50414d564f435453L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORDS_END = 16;
+    private static final int SOURCE_RECORD = 1;
+    private static final int BLOCK_RECORD = 2;
+    private static final int BLOCK_SHIFT = 10;
+    private static final int BLOCK_SECTIONS = 1 << BLOCK_SHIFT;
+    private static final int SECTION_SIZE = 16;
+    private static final int BLOCK_BITS = 24;
+    private static final int BLOCK_RANGES = BLOCK_BITS + BLOCK_SECTIONS / Byte.SIZE;
+    private static final int BLOCK_COUNTS = BLOCK_RANGES + BLOCK_SECTIONS * SECTION_SIZE;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int blockSize;
+    /**
+     * The end of the allocated records, guarded by this object's monitor.
+     */
+    private int end = HEADER_SIZE;
+
+    private CoverageFile(FileChannel channel, MappedByteBuffer buffer, boolean counting) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.blockSize = counting ? BLOCK_COUNTS + BLOCK_SECTIONS * Long.BYTES : BLOCK_COUNTS;
+    }
+
+    /**
+     * Creates the file, replacing any existing file, and maps it.
+     */
+    static CoverageFile create(Path path, long size, boolean counting) throws IOException {
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The size of the mapped file must be between " + HEADER_SIZE + " and " + Integer.MAX_VALUE + " bytes.");
+        }
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(8, VERSION);
+        buffer.putInt(12, counting ? 1 : 0);
+        LONGS.setRelease(buffer, RECORDS_END, (long) HEADER_SIZE);
+        return new CoverageFile(channel, buffer, counting);
+    }
+
+    /**
+     * Writes the source record of a coverage.
+     *
+     * @return the region the coverage is mirrored to, or {@code null} if the file is full.
+     */
+    synchronized Region addSource(SourceKey key, int index, int lineCount) {
+        final byte[] name = key.name.getBytes(StandardCharsets.UTF_8);
+        final int offset = allocate(SOURCE_RECORD, 28 + name.length);
+        if (offset < 0) {
+            return null;
+        }
+        buffer.putInt(offset + 8, index);
+        buffer.putInt(offset + 12, lineCount);
+        buffer.putLong(offset + 16, key.contentHash);
+        buffer.putInt(offset + 24, name.length);
+        buffer.put(offset + 28, name);
+        publishRecords();
+        return new Region(index);
+    }
+
+    private synchronized int addBlock(int index, int firstSection) {
+        final int offset = allocate(BLOCK_RECORD, blockSize);
+        if (offset >= 0) {
+            buffer.putInt(offset + 8, index);
+            buffer.putInt(offset + 12, firstSection);
+            publishRecords();
+        }
+        return offset;
+    }
+
+    /**
+     * @return the offset of the new record, or {@code -1} if it does not fit.
+     */
+    private int allocate(int type, int size) {
+        final int length = (size + 7) & ~7;
+        if (length > buffer.capacity() - end) {
+            return -1;
+        }
+        final int offset = end;
+        end += length;
+        buffer.putInt(offset, type);
+        buffer.putInt(offset + 4, length);
+        return offset;
+    }
+
+    private void publishRecords() {
+        LONGS.setRelease(buffer, RECORDS_END, (long) end);
+    }
+
+    /**
+     * Writes all changes to the storage device and closes the file. The mapping stays valid until
+     * it is garbage collected.
+     */
+    synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * The part of the file that mirrors a single {@link Coverage}. Sections are only added while the
+     * coverage is locked, covered bits and counts are written without locking.
+     */
+    final class Region {
+
+        private final int index;
+        /**
+         * The offset of each block record, or {@code -1} once the file was full.
+         */
+        private volatile int[] blocks = new int[0];
+
+        private Region(int index) {
+            this.index = index;
+        }
+
+        void addLoaded(int sectionId, int startLine, int endLine, int charIndex, int charLength) {
+            final int block = sectionId >>> BLOCK_SHIFT;
+            int[] current = blocks;
+            if (block == current.length) {
+                current = Arrays.copyOf(current, block + 1);
+                current[block] = addBlock(index, block << BLOCK_SHIFT);
+                blocks = current;
+            }
+            final int offset = current[block];
+            if (offset < 0) {
+                return;
+            }
+            final int slot = sectionId & (BLOCK_SECTIONS - 1);
+            final int range = offset + BLOCK_RANGES + slot * SECTION_SIZE;
+            buffer.putInt(range, startLine);
+            buffer.putInt(range + 4, endLine);
+            buffer.putInt(range + 8, charIndex);
+            buffer.putInt(range + 12, charLength);
+            INTS.setRelease(buffer, offset + 16, slot + 1);
+        }
+
+        void addCovered(int sectionId) {
+            final int offset = blockOffset(sectionId);
+            if (offset >= 0) {
+                LONGS.getAndBitwiseOr(buffer, offset + BLOCK_BITS + ((sectionId & (BLOCK_SECTIONS - 1)) >>> 6) * Long.BYTES, 1L << sectionId);
+            }
+        }
+
+        void publishCounts(LongAdder[] counters, int sectionCount) {
+            for (int id = 0; id < sectionCount; id++) {
+                final int offset = blockOffset(id);
+                if (offset >= 0) {
+                    LONGS.setRelease(buffer, offset + BLOCK_COUNTS + (id & (BLOCK_SECTIONS - 1)) * Long.BYTES, counters[id].sum());
+                }
+            }
+        }
+
+        /**
+         * Clears the covered bits of all sections. Counts are cleared by the next
+         * {@link #publishCounts(LongAdder[], int) publish}.
+         */
+        void reset(int sectionCount) {
+            for (int id = 0; id < sectionCount; id += Long.SIZE) {
+                final int offset = blockOffset(id);
+                if (offset >= 0) {
+                    LONGS.setRelease(buffer, offset + BLOCK_BITS + ((id & (BLOCK_SECTIONS - 1)) >>> 6) * Long.BYTES, 0L);
+                }
+            }
+        }
+
+        private int blockOffset(int sectionId) {
+            final int[] current = blocks;
+            final int block = sectionId >>> BLOCK_SHIFT;
+            return block < current.length ? current[block] : -1;
+        }
+    }
+
+    /**
+     * Reads the coverage in a file written by the instrument. The file can still be written to,
+     * in that case the result is a consistent snapshot of the records that were complete when the
+     * file was opened, with the covered sections and counts at the time they were read.
+     *
+     * @return a summary of each source in the file, in the order they were loaded.
+     */
+    public static List<CoverageSummary> read(Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+            throw new IOException("Not a coverage file: " + path);
+        }
+        final boolean counting = buffer.getInt(12) != 0;
+        final int end = (int) (long) LONGS.getAcquire(buffer, RECORDS_END);
+        final Map<Integer, SourceLines> sources = new LinkedHashMap<>();
+        for (int offset = HEADER_SIZE; offset < end; offset += buffer.getInt(offset + 4)) {
+            final int index = buffer.getInt(offset + 8);
+            if (buffer.getInt(offset) == SOURCE_RECORD) {
+                final byte[] name = new byte[buffer.getInt(offset + 24)];
+                buffer.get(offset + 28, name);
+                final SourceKey key = new SourceKey(new String(name, StandardCharsets.UTF_8), buffer.getLong(offset + 16));
+                sources.put(index, new SourceLines(key, buffer.getInt(offset + 12), counting));
+            } else {
+                sources.get(index).addBlock(buffer, offset);
+            }
+        }
+        final List<CoverageSummary> summaries = new ArrayList<>(sources.size());
+        for (SourceLines lines : sources.values()) {
+            summaries.add(lines.summarize());
+        }
+        return summaries;
+    }
+
+    /**
+     * Line level results of a source, computed the same way as by {@link Coverage}.
+     */
+    private static final class SourceLines {
+
+        private final SourceKey key;
+        private final int lineCount;
+        private final BitSet loadedLines = new BitSet();
+        private final BitSet nonCoveredLines = new BitSet();
+        private long[] lineCounts;
+
+        SourceLines(SourceKey key, int lineCount, boolean counting) {
+            this.key = key;
+            this.lineCount = lineCount;
+            this.lineCounts = counting ? new long[0] : null;
+        }
+
+        void addBlock(MappedByteBuffer buffer, int offset) {
+            final int sectionCount = (int) INTS.getAcquire(buffer, offset + 16);
+            for (int slot = 0; slot < sectionCount; slot++) {
+                final int range = offset + BLOCK_RANGES + slot * SECTION_SIZE;
+                final int startLine = buffer.getInt(range);
+                final int endLine = buffer.getInt(range + 4);
+                loadedLines.set(startLine, endLine + 1);
+                final long bits = (long) LONGS.getAcquire(buffer, offset + BLOCK_BITS + (slot >>> 6) * Long.BYTES);
+                if ((bits & (1L << slot)) == 0) {
+                    nonCoveredLines.set(startLine, endLine + 1);
+                }
+                if (lineCounts != null) {
+                    final long count = (long) LONGS.getAcquire(buffer, offset + BLOCK_COUNTS + slot * Long.BYTES);
+                    if (endLine >= lineCounts.length) {
+                        lineCounts = Arrays.copyOf(lineCounts, endLine + 1);
+                    }
+                    for (int line = startLine; line <= endLine; line++) {
+                        lineCounts[line] = Math.max(lineCounts[line], count);
+                    }
+                }
+            }
+        }
+
+        CoverageSummary summarize() {
+            return new CoverageSummary(key, lineCount, loadedLines, nonCoveredLines, lineCounts == null ? null : Arrays.copyOf(lineCounts, loadedLines.length()));
+        }
+    }
+}
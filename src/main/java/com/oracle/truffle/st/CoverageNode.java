@@ -40,41 +40,126 @@
  */
 package com.oracle.truffle.st;
 
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.ContextLocal;
+import com.oracle.truffle.api.ContextThreadLocal;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
 import com.oracle.truffle.api.instrumentation.Instrumenter;
 import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
 
 /**
  * Node that "wraps" AST nodes of interest (Nodes that correspond to expressions in our case as
  * defined by the filter given to the {@link Instrumenter} in
  * {@link SimpleCoverageInstrument#onCreate(com.oracle.truffle.api.instrumentation.TruffleInstrument.Env) }
- * ), and informs the {@link SimpleCoverageInstrument} that we
- * {@link SimpleCoverageInstrument#addCovered(SourceSection) covered} it's
- * {@link #instrumentedSourceSection source section}.
+ * ), and informs the {@link Coverage} of its source that we {@link Coverage#addCovered(int, Granularity)
+ * covered} the {@link SourceSection} it instruments.
  */
 final class CoverageNode extends ExecutionEventNode {
 
-    private final SimpleCoverageInstrument instrument;
+    private final Coverage coverage;
+
+    /**
+     * Whether the section was covered, already set when the node is created for a section that
+     * was covered before, e.g. by the nodes the instrument had before it was stopped and started
+     * again. Otherwise the first execution of each such node would invalidate compiled code once
+     * more, for nothing.
+     */
     @CompilerDirectives.CompilationFinal private boolean covered;
 
     /**
-     * Each node knows which {@link SourceSection} it instruments.
+     * Each node knows the id its {@link SourceSection} was given when it was
+     * {@link Coverage#addLoaded(SourceSection, Granularity, String) registered}, and the
+     * granularity it was registered at, so recording it as covered does not need to look the
+     * section up.
+     */
+    private final int sectionId;
+    private final Granularity granularity;
+
+    /**
+     * The execution counter of the section, or {@code null} if the instrument is not counting. The
+     * field is final, so the compiler folds the {@code null} check and code that only records
+     * coverage does not pay for counting.
+     */
+    private final LongAdder counter;
+
+    /**
+     * The binding that created this node if covered instrumentation is removed, otherwise
+     * {@code null}.
+     */
+    private final SourceBinding sourceBinding;
+
+    /**
+     * The {@link ContextCoverage} of each context, or {@code null} if the instrument does not
+     * record coverage {@link SimpleCoverageInstrument#PER_CONTEXT per context}.
+     */
+    private final ContextLocal<ContextCoverage> contextCoverage;
+
+    /**
+     * The {@link TestEpochs}, or {@code null} if the instrument does not record
+     * {@link SimpleCoverageInstrument#TEST_EPOCHS test epochs}.
+     */
+    private final TestEpochs testEpochs;
+
+    /**
+     * The assumption of the test epoch our section was last recorded in.
      */
-    private final SourceSection instrumentedSourceSection;
+    @CompilerDirectives.CompilationFinal private Assumption testEpoch = Assumption.NEVER_VALID;
 
-    CoverageNode(SimpleCoverageInstrument instrument, SourceSection instrumentedSourceSection) {
-        this.instrument = instrument;
-        this.instrumentedSourceSection = instrumentedSourceSection;
+    /**
+     * The {@link OverheadGovernor} that counts our invalidations and opens the sample windows, or
+     * {@code null} if the instrument has neither a budget nor a sample window.
+     */
+    private final OverheadGovernor governor;
+
+    /**
+     * The batch of first hits in compiled code, or {@code null} if each first hit invalidates the
+     * compiled code right away.
+     */
+    private final FirstHits firstHits;
+
+    /**
+     * Whether the node was executed in compiled code and {@link FirstHits#add(CoverageNode) added}
+     * to the {@link #firstHits batch} that will set its {@link #covered} flag. Unlike that flag, it
+     * is read by compiled code with each execution.
+     */
+    private boolean hit;
+
+    /**
+     * The {@link HotSections.Sketch} of each thread, or {@code null} if the instrument does not
+     * report {@link SimpleCoverageInstrument#HOT_SECTIONS hot sections}.
+     */
+    private final ContextThreadLocal<HotSections.Sketch> hotSketch;
+
+    private final CoverageStatistics statistics;
+
+    CoverageNode(Coverage coverage, int sectionId, Granularity granularity, SourceBinding sourceBinding, ContextLocal<ContextCoverage> contextCoverage, TestEpochs testEpochs, OverheadGovernor governor, FirstHits firstHits,
+                    ContextThreadLocal<HotSections.Sketch> hotSketch, CoverageStatistics statistics) {
+        this.coverage = coverage;
+        this.sectionId = sectionId;
+        this.granularity = granularity;
+        this.covered = coverage.isCovered(sectionId);
+        this.counter = coverage.getCounter(sectionId);
+        this.sourceBinding = sourceBinding;
+        this.contextCoverage = contextCoverage;
+        this.testEpochs = testEpochs;
+        this.governor = governor;
+        this.firstHits = firstHits;
+        this.hotSketch = hotSketch;
+        this.statistics = statistics;
     }
 
     /**
      * The {@link ExecutionEventNode} class let's us define several events that we can intercept.
      * The one of interest to us is
      * {@link ExecutionEventNode#onReturnValue(com.oracle.truffle.api.frame.VirtualFrame, Object) }
-     * as we wish to track this nodes {@link #instrumentedSourceSection} in the
-     * {@link SimpleCoverageInstrument#coverageMap} only once the node is successfully executed (as
+     * as we wish to track this nodes {@link #sectionId section} in its {@link Coverage} only once
+     * the node is successfully executed (as
      * oppose to, for example,
      * {@link ExecutionEventNode#onReturnExceptional(com.oracle.truffle.api.frame.VirtualFrame, Throwable) }
      * ).
@@ -99,16 +184,106 @@ final class CoverageNode extends ExecutionEventNode {
      * compilation will have no instrumentation overhead on performance.</li>
      * </ul>
      *
+     * If first hits are {@link FirstHits batched}, compiled code does not invalidate itself.
+     * Instead, as long as no batch was flushed since it was compiled, it sets the {@link #hit}
+     * field and adds the node to the batch the first time the node is executed, and the batch
+     * later sets the {@link #covered} flag of many nodes with a single invalidation.
+     *
+     * If covered instrumentation is removed, the {@link SourceBinding} is notified of the newly
+     * covered section so that it can eventually remove this node from the AST altogether.
+     *
+     * If the instrument is counting, every execution also increments the {@link #counter}. This
+     * never invalidates compiled code, so counting does not cause repeated deoptimizations.
+     *
+     * If hot sections are reported, every execution is also offered to the
+     * {@link HotSections.Sketch} of the current thread, which, like counting, never invalidates
+     * compiled code.
+     *
+     * If coverage is recorded per context, every execution also checks whether the section was
+     * already covered in the current context. The node is shared by all contexts of the engine, so
+     * this check can not be folded like the {@link #covered} flag, but it never invalidates
+     * compiled code either. Only the first execution in each context crosses a boundary to record
+     * the section.
+     *
+     * If test epochs are recorded, the {@link #testEpoch} works like the {@link #covered} flag, but
+     * it is re-armed for all nodes at once when the {@link TestEpochs} invalidates it at the next
+     * test boundary.
+     *
+     * If coverage is {@link OverheadGovernor sampled}, nothing is recorded between sample windows.
+     *
      * @param vFrame unused
      * @param result unused
      */
     @Override
     public void onReturnValue(VirtualFrame vFrame, Object result) {
-        if (!covered) {
+        if (!covered && isRecording()) {
+            if (firstHits != null && CompilerDirectives.inCompiledCode() && firstHits.pending.isValid()) {
+                if (!hit) {
+                    hit = true;
+                    firstHits.add(this);
+                }
+            } else {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                covered = true;
+                if (governor != null && firstHits == null) {
+                    governor.countInvalidation();
+                }
+                recordCovered();
+            }
+        }
+        if (counter != null && isRecording()) {
+            increment(counter);
+        }
+        if (hotSketch != null && isRecording()) {
+            HotSections.record(hotSketch.get(), coverage, sectionId);
+        }
+        if (testEpochs != null && !testEpoch.isValid() && isRecording()) {
             CompilerDirectives.transferToInterpreterAndInvalidate();
-            covered = true;
-            instrument.addCovered(instrumentedSourceSection);
+            // Not counted against the invalidation budget, see TestEpochs.
+            testEpoch = testEpochs.record(coverage, sectionId);
         }
+        if (contextCoverage != null && isRecording()) {
+            final ContextCoverage current = contextCoverage.get();
+            if (!current.isCovered(coverage, sectionId)) {
+                current.addCovered(coverage, sectionId);
+            }
+        }
+    }
+
+    /**
+     * Checked only by the parts of {@link #onReturnValue(VirtualFrame, Object)} that record
+     * something, so that a covered node does not depend on the sample windows at all.
+     *
+     * @return whether a {@link SimpleCoverageInstrument#SAMPLE_WINDOW sample window} is open, or
+     *         {@code true} if coverage is not sampled.
+     */
+    private boolean isRecording() {
+        return governor == null || governor.isRecording();
+    }
+
+    /**
+     * Records the section as covered, once it was executed for the first time.
+     */
+    void recordCovered() {
+        final long start = System.nanoTime();
+        final boolean added = coverage.addCovered(sectionId, granularity);
+        statistics.countFirstHit(System.nanoTime() - start);
+        if (added && sourceBinding != null) {
+            sourceBinding.onCovered();
+        }
+    }
+
+    /**
+     * Only called by {@link FirstHits#flush()}, right before it invalidates the code compiled
+     * while the flag was not set.
+     */
+    void setCovered() {
+        covered = true;
+    }
+
+    @TruffleBoundary
+    private static void increment(LongAdder counter) {
+        counter.increment();
     }
 
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.oracle.truffle.st.SimpleCoverageInstrument.Format;
+
+/**
+ * Writes a coverage report in one of the supported {@link Format formats}.
+ *
+ * Reports are streamed: {@link #begin(int, int)} is called once, followed by
+ * {@link #writeSource(SourceReport)} for each source, {@link #writeHotSections(List)} if hot
+ * sections are reported, and a final {@link #end()}. Each source is
+ * written straight to the underlying {@link Writer}, which is expected to be buffered, so no
+ * writer ever builds the text of a whole report. Writers also avoid
+ * {@link String#format(String, Object...)} for per line output.
+ */
+abstract class CoverageReportWriter {
+
+    protected final Writer out;
+
+    protected CoverageReportWriter(Writer out) {
+        this.out = out;
+    }
+
+    static CoverageReportWriter create(Format format, Writer out) {
+        switch (format) {
+            case LCOV:
+                return new LcovReportWriter(out);
+            case COBERTURA:
+                return new CoberturaReportWriter(out);
+            case JSON:
+                return new JsonReportWriter(out);
+            default:
+                return new TextReportWriter(out);
+        }
+    }
+
+    /**
+     * @param loadedLines the number of loaded lines in all sources of the report
+     * @param coveredLines the number of covered lines in all sources of the report
+     */
+    void begin(int loadedLines, int coveredLines) throws IOException {
+    }
+
+    abstract void writeSource(SourceReport report) throws IOException;
+
+    /**
+     * Formats that have no place for them leave the hot sections out.
+     */
+    void writeHotSections(List<HotSections.HotSection> hotSections) throws IOException {
+    }
+
+    void end() throws IOException {
+    }
+
+    protected final void write(long value) throws IOException {
+        out.write(Long.toString(value));
+    }
+
+    protected static String rate(int covered, int total) {
+        return total == 0 ? "1.0" : Double.toString((double) covered / total);
+    }
+}
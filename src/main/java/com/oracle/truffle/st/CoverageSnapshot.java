@@ -0,0 +1,598 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * A compact binary snapshot of the coverage of many sources, written by the instrument if the
+ * {@link SimpleCoverageInstrument.Format#SNAPSHOT snapshot} format is requested. Unlike the other
+ * formats, a snapshot keeps the individual sections, so snapshots of separate runs can be
+ * {@link SnapshotMerger merged} without losing precision.
+ *
+ * Most values are varints: 7 bits per byte, least significant first, the high bit set on all but
+ * the last byte. Values that can be negative are zigzag encoded first. Sections are sorted by
+ * start line and character index and their ranges are stored as deltas to the previous section,
+ * so most of them fit in a few bytes.
+ *
+ * <pre>
+ * long     magic "STCOVSNP", little-endian
+ * varint   version (2)
+ * varint   flags, 1 if execution counts are included
+ * varint   number of sources
+ * for each source
+ *   varint   length of the name, followed by the name in UTF-8
+ *   long     content hash, little-endian
+ *   varint   line count
+ *   varint   number of sections
+ *   for each section
+ *     zigzag   start line - start line of the previous section
+ *     varint   end line - start line
+ *     zigzag   char index - char index of the previous section
+ *     varint   char length
+ *     varint   {@link SimpleCoverageInstrument.Granularity granularity} ordinal
+ *     varint   if the granularity is root, 1 + length of the function name, followed by the name
+ *              in UTF-8, or 0 if the function has no name
+ *   byte[]   covered bits, one per section, least significant bit first
+ *   varint[] execution count of each section, if counts are included
+ *   varint   number of summarized lines
+ *   varint[] each summarized line - the previous summarized line
+ *   byte[]   covered bits, one per summarized line
+ *   varint[] execution count of each summarized line, if counts are included
+ * </pre>
+ *
+ * Sources that are no longer loaded are only known by their {@link CoverageSummary}, which does
+ * not keep sections. Their loaded lines are written as summarized lines instead, and merged like
+ * {@link CoverageSummary#merge(CoverageSummary) summaries}: a line is covered if it was covered in
+ * any snapshot.
+ *
+ * Version 1 snapshots, which were written before sections had a granularity, are still read. All
+ * of their sections are statements.
+ */
+public final class CoverageSnapshot {
+
+    private static final long MAGIC = 0x504e53564f435453L;
+    private static final int VERSION = 2;
+    private static final int STATEMENTS_ONLY_VERSION = 1;
+    private static final int COUNTS = 1;
+    /**
+     * The most lines a source may have. Line numbers are used as indices when a snapshot is read,
+     * so a corrupt line count must not make us allocate for billions of lines.
+     */
+    private static final int MAX_LINE_COUNT = 1 << 24;
+    private static final Comparator<SnapshotSource> SOURCE_ORDER = Comparator.comparing((SnapshotSource s) -> s.key.name).thenComparingLong(s -> s.key.contentHash);
+
+    private CoverageSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the coverages and summaries, sorted by name. A coverage and a summary
+     * with the same key are written as a single source.
+     */
+    static void write(WritableByteChannel channel, Collection<Coverage> coverages, Collection<CoverageSummary> summaries, boolean counting) throws IOException {
+        final Map<SourceKey, SnapshotSource> sources = new HashMap<>();
+        for (Coverage coverage : coverages) {
+            sources.computeIfAbsent(coverage.getKey(), key -> new SnapshotSource(key, coverage.getLineCount())).coverage = coverage;
+        }
+        for (CoverageSummary summary : summaries) {
+            sources.computeIfAbsent(summary.getKey(), key -> new SnapshotSource(key, summary.getLineCount())).addLines(summary);
+        }
+        write(channel, sources.values(), counting);
+    }
+
+    static void write(WritableByteChannel channel, Collection<SnapshotSource> sources, boolean counting) throws IOException {
+        final List<SnapshotSource> sorted = sort(sources);
+        final Encoder encoder = new Encoder(channel);
+        encoder.putLong(MAGIC);
+        encoder.putVarint(VERSION);
+        encoder.putVarint(counting ? COUNTS : 0);
+        encoder.putVarint(sorted.size());
+        for (SnapshotSource source : sorted) {
+            source.write(encoder, counting);
+        }
+        encoder.flush();
+    }
+
+    /**
+     * Reads a snapshot file written by the instrument.
+     *
+     * @return a summary of each source in the snapshot, sorted by name.
+     */
+    public static List<CoverageSummary> read(Path path) throws IOException {
+        final Map<SourceKey, SnapshotSource> sources = new HashMap<>();
+        final boolean counting = readInto(map(path), sources);
+        return summarize(sources.values(), counting);
+    }
+
+    static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Adds each source in a snapshot to the source with the same key, creating it if needed.
+     *
+     * @return whether the snapshot includes execution counts.
+     */
+    static boolean readInto(ByteBuffer buffer, Map<SourceKey, SnapshotSource> sources) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.remaining() < Long.BYTES || buffer.getLong() != MAGIC) {
+                throw new IOException("Not a coverage snapshot.");
+            }
+            final long version = getVarint(buffer);
+            if (version != VERSION && version != STATEMENTS_ONLY_VERSION) {
+                throw new IOException("Unsupported coverage snapshot version " + version + ".");
+            }
+            final boolean counting = (getVarint(buffer) & COUNTS) != 0;
+            final long sourceCount = getVarint(buffer);
+            for (long i = 0; i < sourceCount; i++) {
+                final byte[] name = new byte[getInt(buffer, buffer.remaining())];
+                buffer.get(name);
+                final SourceKey key = new SourceKey(new String(name, StandardCharsets.UTF_8), buffer.getLong());
+                final int lineCount = getInt(buffer, MAX_LINE_COUNT);
+                final SnapshotSource source = sources.computeIfAbsent(key, k -> new SnapshotSource(k, lineCount));
+                source.readSections(buffer, counting, version != STATEMENTS_ONLY_VERSION);
+                source.readLines(buffer, counting);
+            }
+            return counting;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated coverage snapshot.");
+        }
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt coverage snapshot.");
+    }
+
+    /**
+     * @param counting whether any of the read snapshots included execution counts
+     * @return a summary of each source, sorted by name.
+     */
+    static List<CoverageSummary> summarize(Collection<SnapshotSource> sources, boolean counting) {
+        final List<SnapshotSource> sorted = sort(sources);
+        final List<CoverageSummary> summaries = new ArrayList<>(sorted.size());
+        for (SnapshotSource source : sorted) {
+            summaries.add(source.summarize(counting));
+        }
+        return summaries;
+    }
+
+    /**
+     * @return the sources sorted by name.
+     */
+    static List<SnapshotSource> sort(Collection<SnapshotSource> sources) {
+        final List<SnapshotSource> sorted = new ArrayList<>(sources);
+        sorted.sort(SOURCE_ORDER);
+        return sorted;
+    }
+
+    private static long getVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= Long.SIZE) {
+                throw corrupt();
+            }
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Reads a varint that is used as a length, count, index or ordinal, and so must be checked
+     * before it is used, e.g. against the bytes remaining in the buffer.
+     *
+     * @param max the largest valid value
+     */
+    private static int getInt(ByteBuffer buffer, long max) throws IOException {
+        final long value = getVarint(buffer);
+        if (value < 0 || value > max) {
+            throw corrupt();
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a zigzag encoded delta to the previous value of a sequence.
+     *
+     * @param max the largest valid value, the smallest being zero
+     */
+    private static int getDelta(ByteBuffer buffer, int previous, long max) throws IOException {
+        final long encoded = getVarint(buffer);
+        final long value = previous + ((encoded >>> 1) ^ -(encoded & 1));
+        if (value < 0 || value > max) {
+            throw corrupt();
+        }
+        return (int) value;
+    }
+
+    private static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * A source of one or more snapshots: the {@link Coverage} of its sections and the
+     * {@link CoverageSummary} of its summarized lines, either of which can be {@code null}.
+     */
+    static final class SnapshotSource {
+
+        final SourceKey key;
+        final int lineCount;
+        Coverage coverage;
+        CoverageSummary lines;
+
+        SnapshotSource(SourceKey key, int lineCount) {
+            this.key = key;
+            this.lineCount = lineCount;
+        }
+
+        /**
+         * Adds the sections and lines of another source with the same key. The other source must
+         * not be used afterwards.
+         */
+        void addAll(SnapshotSource other) {
+            if (coverage == null) {
+                coverage = other.coverage;
+            } else if (other.coverage != null) {
+                coverage.addAll(other.coverage);
+            }
+            if (other.lines != null) {
+                addLines(other.lines);
+            }
+        }
+
+        void addLines(CoverageSummary summary) {
+            lines = lines == null ? summary : lines.merge(summary);
+        }
+
+        CoverageSummary summarize(boolean counting) {
+            CoverageSummary summary = coverage == null ? null : coverage.summarize();
+            if (summary != null && !counting) {
+                summary = new CoverageSummary(key, lineCount, summary.loadedLines, summary.nonCoveredLines, null);
+            }
+            if (lines != null) {
+                summary = summary == null ? lines : summary.merge(lines);
+            }
+            return summary;
+        }
+
+        void write(Encoder encoder, boolean counting) throws IOException {
+            final byte[] name = key.name.getBytes(StandardCharsets.UTF_8);
+            encoder.putVarint(name.length);
+            encoder.put(name);
+            encoder.putLong(key.contentHash);
+            encoder.putVarint(lineCount);
+            final Sections sections = new Sections();
+            if (coverage != null) {
+                coverage.forEachSection(sections::add);
+            }
+            sections.write(encoder, counting);
+            writeLines(encoder, counting);
+        }
+
+        private void writeLines(Encoder encoder, boolean counting) throws IOException {
+            if (lines == null) {
+                encoder.putVarint(0);
+                return;
+            }
+            final BitSet loaded = lines.loadedLines;
+            encoder.putVarint(loaded.cardinality());
+            int previous = 0;
+            for (int line = loaded.nextSetBit(0); line >= 0; line = loaded.nextSetBit(line + 1)) {
+                encoder.putVarint(line - previous);
+                previous = line;
+            }
+            final byte[] bits = new byte[(loaded.cardinality() + 7) >>> 3];
+            int i = 0;
+            for (int line = loaded.nextSetBit(0); line >= 0; line = loaded.nextSetBit(line + 1), i++) {
+                if (!lines.nonCoveredLines.get(line)) {
+                    bits[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            encoder.put(bits);
+            if (counting) {
+                final long[] counts = lines.lineCounts;
+                for (int line = loaded.nextSetBit(0); line >= 0; line = loaded.nextSetBit(line + 1)) {
+                    encoder.putVarint(counts != null && line < counts.length ? counts[line] : 0);
+                }
+            }
+        }
+
+        /**
+         * Each section takes at least one byte, so a count larger than the rest of the buffer is
+         * corrupt, and the line numbers of sections are at most the line count.
+         */
+        void readSections(ByteBuffer buffer, boolean counting, boolean granular) throws IOException {
+            final int count = getInt(buffer, buffer.remaining());
+            if (count == 0) {
+                return;
+            }
+            if (coverage == null) {
+                // Always count, so that counts of snapshots read later are not lost.
+                coverage = new Coverage(key, 0, lineCount, true);
+            }
+            final int[] charIndexes = new int[count];
+            final int[] charLengths = new int[count];
+            final int[] startLines = new int[count];
+            final int[] endLines = new int[count];
+            final Granularity[] granularities = new Granularity[count];
+            final String[] names = new String[count];
+            int startLine = 0;
+            int charIndex = 0;
+            final int maxLine = Math.max(lineCount, 1);
+            for (int i = 0; i < count; i++) {
+                startLine = getDelta(buffer, startLine, maxLine);
+                startLines[i] = startLine;
+                endLines[i] = startLine + getInt(buffer, maxLine - startLine);
+                charIndex = getDelta(buffer, charIndex, Integer.MAX_VALUE);
+                charIndexes[i] = charIndex;
+                charLengths[i] = getInt(buffer, Integer.MAX_VALUE - charIndex);
+                granularities[i] = granular ? Granularity.VALUES[getInt(buffer, Granularity.VALUES.length - 1)] : Granularity.STATEMENT;
+                if (granularities[i] == Granularity.ROOT) {
+                    final int length = getInt(buffer, buffer.remaining() + 1L);
+                    if (length > 0) {
+                        final byte[] name = new byte[length - 1];
+                        buffer.get(name);
+                        names[i] = new String(name, StandardCharsets.UTF_8);
+                    }
+                }
+            }
+            final byte[] covered = new byte[(count + 7) >>> 3];
+            buffer.get(covered);
+            for (int i = 0; i < count; i++) {
+                final boolean isCovered = (covered[i >>> 3] & (1 << (i & 7))) != 0;
+                coverage.add(charIndexes[i], charLengths[i], startLines[i], endLines[i], granularities[i], names[i], isCovered, counting ? getVarint(buffer) : 0);
+            }
+        }
+
+        void readLines(ByteBuffer buffer, boolean counting) throws IOException {
+            final int count = getInt(buffer, buffer.remaining());
+            if (count == 0) {
+                return;
+            }
+            final int[] lineNumbers = new int[count];
+            final int maxLine = Math.max(lineCount, 1);
+            int line = 0;
+            for (int i = 0; i < count; i++) {
+                line += getInt(buffer, maxLine - line);
+                lineNumbers[i] = line;
+            }
+            final byte[] covered = new byte[(count + 7) >>> 3];
+            buffer.get(covered);
+            final BitSet loaded = new BitSet();
+            final BitSet nonCovered = new BitSet();
+            final long[] counts = counting ? new long[line + 1] : null;
+            for (int i = 0; i < count; i++) {
+                loaded.set(lineNumbers[i]);
+                if ((covered[i >>> 3] & (1 << (i & 7))) == 0) {
+                    nonCovered.set(lineNumbers[i]);
+                }
+                if (counting) {
+                    counts[lineNumbers[i]] = getVarint(buffer);
+                }
+            }
+            addLines(new CoverageSummary(key, lineCount, loaded, nonCovered, counts));
+        }
+    }
+
+    /**
+     * The sections of one source, collected so that they can be sorted before they are written.
+     */
+    private static final class Sections {
+
+        private int count;
+        private int[] charIndexes = new int[16];
+        private int[] charLengths = new int[16];
+        private int[] startLines = new int[16];
+        private int[] endLines = new int[16];
+        private long[] counts = new long[16];
+        private Granularity[] granularities = new Granularity[16];
+        private String[] names = new String[16];
+        private final BitSet covered = new BitSet();
+
+        void add(int charIndex, int charLength, int startLine, int endLine, Granularity granularity, String name, boolean isCovered, long executions) {
+            if (count == startLines.length) {
+                charIndexes = Arrays.copyOf(charIndexes, count * 2);
+                charLengths = Arrays.copyOf(charLengths, count * 2);
+                startLines = Arrays.copyOf(startLines, count * 2);
+                endLines = Arrays.copyOf(endLines, count * 2);
+                counts = Arrays.copyOf(counts, count * 2);
+                granularities = Arrays.copyOf(granularities, count * 2);
+                names = Arrays.copyOf(names, count * 2);
+            }
+            charIndexes[count] = charIndex;
+            charLengths[count] = charLength;
+            startLines[count] = startLine;
+            endLines[count] = endLine;
+            counts[count] = executions;
+            granularities[count] = granularity;
+            names[count] = name;
+            covered.set(count, isCovered);
+            count++;
+        }
+
+        /**
+         * Sorts sections by a key, keeping the order of sections with equal keys, by sorting the
+         * keys packed with the position of their section in the order.
+         *
+         * @param keys the key of each section
+         * @return the sorted order
+         */
+        private int[] sortBy(int[] order, int[] keys, long[] packed) {
+            for (int i = 0; i < count; i++) {
+                packed[i] = ((long) keys[order[i]] << 32) | i;
+            }
+            Arrays.sort(packed);
+            final int[] sorted = new int[count];
+            for (int i = 0; i < count; i++) {
+                sorted[i] = order[(int) packed[i]];
+            }
+            return sorted;
+        }
+
+        void write(Encoder encoder, boolean counting) throws IOException {
+            int[] order = new int[count];
+            final int[] ordinals = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+                ordinals[i] = granularities[i].ordinal();
+            }
+            // Sorted by one key at a time, the least significant first, as each sort keeps the
+            // order of sections with equal keys.
+            final long[] packed = new long[count];
+            order = sortBy(order, ordinals, packed);
+            order = sortBy(order, charLengths, packed);
+            order = sortBy(order, charIndexes, packed);
+            order = sortBy(order, startLines, packed);
+            encoder.putVarint(count);
+            int startLine = 0;
+            int charIndex = 0;
+            for (int i : order) {
+                encoder.putVarint(zigzagEncode(startLines[i] - startLine));
+                encoder.putVarint(endLines[i] - startLines[i]);
+                encoder.putVarint(zigzagEncode(charIndexes[i] - charIndex));
+                encoder.putVarint(charLengths[i]);
+                encoder.putVarint(granularities[i].ordinal());
+                if (granularities[i] == Granularity.ROOT) {
+                    if (names[i] == null) {
+                        encoder.putVarint(0);
+                    } else {
+                        final byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+                        encoder.putVarint(name.length + 1);
+                        encoder.put(name);
+                    }
+                }
+                startLine = startLines[i];
+                charIndex = charIndexes[i];
+            }
+            final byte[] bits = new byte[(count + 7) >>> 3];
+            for (int i = 0; i < count; i++) {
+                if (covered.get(order[i])) {
+                    bits[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            encoder.put(bits);
+            if (counting) {
+                for (int i : order) {
+                    encoder.putVarint(counts[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes values into a buffer that is written to a channel whenever it is full.
+     */
+    private static final class Encoder {
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        Encoder(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void putVarint(long value) throws IOException {
+            ensure(10);
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                buffer.put((byte) ((remaining & 0x7F) | 0x80));
+                remaining >>>= 7;
+            }
+            buffer.put((byte) remaining);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                final int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the instrument's own work, so that its overhead can be told apart from that of the
+ * guest code. They are available through the {@link SimpleCoverageInstrument#getStatistics()
+ * service} and, while a JDK Flight Recorder recording runs, as periodic
+ * {@link CoverageEvents.Statistics statistics events}, next to the
+ * {@link CoverageEvents.Report report} and {@link CoverageEvents.Finalize finalize} events.
+ *
+ * Only work that is done once per section is counted, i.e. loading sections, creating nodes and
+ * recording first hits, never the executions of covered code, so the counters add nothing to the
+ * cost of compiled code. The counters are {@link LongAdder}s, so threads loading code at the same
+ * time do not contend on them. The times include waiting for the monitor of a {@link Coverage}.
+ */
+public final class CoverageStatistics {
+
+    private final SimpleCoverageInstrument instrument;
+    private final LongAdder sectionsLoaded = new LongAdder();
+    private final LongAdder nodesCreated = new LongAdder();
+    private final LongAdder firstHits = new LongAdder();
+    private final LongAdder addLoadedNanos = new LongAdder();
+    private final LongAdder addCoveredNanos = new LongAdder();
+    private volatile long reportNanos;
+    private volatile long finalizeNanos;
+
+    CoverageStatistics(SimpleCoverageInstrument instrument) {
+        this.instrument = instrument;
+    }
+
+    void countSectionLoaded() {
+        sectionsLoaded.increment();
+    }
+
+    void countNodeCreated() {
+        nodesCreated.increment();
+    }
+
+    void addLoadedTime(long nanos) {
+        addLoadedNanos.add(nanos);
+    }
+
+    void countFirstHit(long nanos) {
+        firstHits.increment();
+        addCoveredNanos.add(nanos);
+    }
+
+    void setReportTime(long nanos) {
+        reportNanos = nanos;
+    }
+
+    void setFinalizeTime(long nanos) {
+        finalizeNanos = nanos;
+    }
+
+    /**
+     * @return the number of sections the instrument was notified of as they were loaded.
+     */
+    public long getSectionsLoaded() {
+        return sectionsLoaded.sum();
+    }
+
+    /**
+     * @return the number of {@link CoverageNode}s created, including those created again when code
+     *         is re-instrumented.
+     */
+    public long getNodesCreated() {
+        return nodesCreated.sum();
+    }
+
+    /**
+     * @return the number of times a node recorded its section as covered.
+     */
+    public long getFirstHits() {
+        return firstHits.sum();
+    }
+
+    /**
+     * @return the time spent registering loaded sections with their {@link Coverage}.
+     */
+    public long getAddLoadedNanos() {
+        return addLoadedNanos.sum();
+    }
+
+    /**
+     * @return the time spent recording first hits with their {@link Coverage}.
+     */
+    public long getAddCoveredNanos() {
+        return addCoveredNanos.sum();
+    }
+
+    /**
+     * @return the number of sources the instrument currently keeps the sections of.
+     */
+    public int getSourceCount() {
+        return instrument.coverageMap.size();
+    }
+
+    /**
+     * @return an estimate of the bytes the instrument retains for the sections of its sources and
+     *         the summaries of sources that are no longer loaded. Computing it visits every
+     *         source, but takes no locks, so it may miss the latest changes.
+     */
+    public long getEstimatedBytes() {
+        return instrument.estimatedBytes();
+    }
+
+    /**
+     * @return the time the last report took to write, or 0 if none was written yet.
+     */
+    public long getReportNanos() {
+        return reportNanos;
+    }
+
+    /**
+     * @return the time finalizing the instrument took, or 0 if it is not finalized yet.
+     */
+    public long getFinalizeNanos() {
+        return finalizeNanos;
+    }
+}
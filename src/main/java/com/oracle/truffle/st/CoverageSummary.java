@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * The line level coverage of a {@link com.oracle.truffle.api.source.Source} that is no longer
+ * loaded.
+ *
+ * A summary only keeps what is needed to report the source: its name, a hash of its content and
+ * its line count, the loaded and not covered lines, and, if the instrument was counting, the
+ * execution count of each line. It does not reference the source itself or any of its sections.
+ *
+ * Summaries of sources with the same {@link SourceKey key} can be {@link #merge(CoverageSummary)
+ * merged}: a line is covered if it was covered in any of them, and line counts are added up.
+ */
+public final class CoverageSummary {
+
+    private final SourceKey key;
+    private final int lineCount;
+    final BitSet loadedLines;
+    final BitSet nonCoveredLines;
+    final long[] lineCounts;
+
+    CoverageSummary(SourceKey key, int lineCount, BitSet loadedLines, BitSet nonCoveredLines, long[] lineCounts) {
+        this.key = key;
+        this.lineCount = lineCount;
+        this.loadedLines = loadedLines;
+        this.nonCoveredLines = nonCoveredLines;
+        this.lineCounts = lineCounts;
+    }
+
+    /**
+     * @return the path of the source, or its name if it did not have a path.
+     */
+    public String getName() {
+        return key.name;
+    }
+
+    /**
+     * @return a hash of the characters of the source.
+     */
+    public long getContentHash() {
+        return key.contentHash;
+    }
+
+    SourceKey getKey() {
+        return key;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public BitSet loadedLines() {
+        return (BitSet) loadedLines.clone();
+    }
+
+    public BitSet nonCoveredLines() {
+        return (BitSet) nonCoveredLines.clone();
+    }
+
+    /**
+     * @return the execution count of each line indexed by line number, or {@code null} if the
+     *         instrument was not counting.
+     */
+    public long[] lineCounts() {
+        return lineCounts == null ? null : lineCounts.clone();
+    }
+
+    /**
+     * @return a summary combining this and another summary of a source with the same key.
+     */
+    CoverageSummary merge(CoverageSummary other) {
+        final BitSet covered = (BitSet) loadedLines.clone();
+        covered.andNot(nonCoveredLines);
+        final BitSet otherCovered = (BitSet) other.loadedLines.clone();
+        otherCovered.andNot(other.nonCoveredLines);
+        covered.or(otherCovered);
+        final BitSet loaded = (BitSet) loadedLines.clone();
+        loaded.or(other.loadedLines);
+        final BitSet nonCovered = (BitSet) loaded.clone();
+        nonCovered.andNot(covered);
+        long[] counts = null;
+        if (lineCounts != null || other.lineCounts != null) {
+            final long[] a = lineCounts != null ? lineCounts : new long[0];
+            final long[] b = other.lineCounts != null ? other.lineCounts : new long[0];
+            counts = new long[Math.max(a.length, b.length)];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = (i < a.length ? a[i] : 0) + (i < b.length ? b[i] : 0);
+            }
+        }
+        return new CoverageSummary(key, Math.max(lineCount, other.lineCount), loaded, nonCovered, counts);
+    }
+
+    /**
+     * @return a rough estimate of the heap memory used by this summary.
+     */
+    long estimatedBytes() {
+        return 64 + key.name.length() * 2L + loadedLines.size() / 8 + nonCoveredLines.size() / 8 + (lineCounts == null ? 0 : lineCounts.length * 8L);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(key.name);
+        out.writeLong(key.contentHash);
+        out.writeInt(lineCount);
+        writeLongs(out, loadedLines.toLongArray());
+        writeLongs(out, nonCoveredLines.toLongArray());
+        if (lineCounts == null) {
+            out.writeInt(-1);
+        } else {
+            writeLongs(out, lineCounts);
+        }
+    }
+
+    static CoverageSummary readFrom(DataInput in) throws IOException {
+        final String name = in.readUTF();
+        final long contentHash = in.readLong();
+        final int lineCount = in.readInt();
+        final BitSet loadedLines = BitSet.valueOf(readLongs(in));
+        final BitSet nonCoveredLines = BitSet.valueOf(readLongs(in));
+        final long[] lineCounts = readLongs(in);
+        return new CoverageSummary(new SourceKey(name, contentHash), lineCount, loadedLines, nonCoveredLines, lineCounts);
+    }
+
+    private static void writeLongs(DataOutput out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static long[] readLongs(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final long[] values = new long[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+}
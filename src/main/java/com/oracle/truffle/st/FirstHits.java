@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+/**
+ * Batches the invalidations caused by sections that are covered for the first time in compiled
+ * code, when the instrument has a {@link SimpleCoverageInstrument#FIRST_HIT_BATCH first hit
+ * batch}.
+ *
+ * By default, a {@link CoverageNode} that is executed for the first time in compiled code
+ * transfers to the interpreter and invalidates that code, so that the next compilation folds its
+ * covered flag away. While a large application warms up, this means thousands of separate
+ * invalidations and recompilations of hot call targets, often of code that was only just
+ * compiled.
+ *
+ * Instead, compiled code checks the {@link #pending} assumption. While it is valid, a node
+ * executed for the first time in compiled code only sets a plain field and {@link #add(CoverageNode)
+ * adds} itself to the batch, which records its section as covered right away. The compiled code
+ * keeps running with the check of that field, a load and a branch per execution, until the batch is
+ * {@link #flush() flushed}: then the covered flags of all nodes in the batch are set and the single
+ * assumption is invalidated, so all affected code is recompiled once without the checks.
+ *
+ * The price is that code that depends on the assumption is invalidated with each flush, even if
+ * none of its own nodes were hit. The batch is therefore only flushed once it is full, or once its
+ * oldest hit is older than the {@link SimpleCoverageInstrument#FIRST_HIT_DELAY delay}, which is
+ * checked when the next hit is added. A batch that never fills up costs only the field checks.
+ */
+final class FirstHits {
+
+    private final int limit;
+    private final long delayNanos;
+    private final OverheadGovernor governor;
+
+    /**
+     * Valid while no batch was flushed since the code that checks it was compiled. Replaced by a
+     * new assumption with each flush, and otherwise treated as a constant by compiled code.
+     */
+    @CompilerDirectives.CompilationFinal Assumption pending = createPending();
+
+    /**
+     * The nodes hit since the last flush. Guarded by this object.
+     */
+    private final List<CoverageNode> batch = new ArrayList<>();
+
+    /**
+     * When the first node of the current batch was hit. Guarded by this object.
+     */
+    private long firstHit;
+
+    FirstHits(int limit, long delayMillis, OverheadGovernor governor) {
+        this.limit = limit;
+        this.delayNanos = delayMillis * 1_000_000L;
+        this.governor = governor;
+    }
+
+    private static Assumption createPending() {
+        return Assumption.create("no first hits flushed");
+    }
+
+    /**
+     * Records the section of a node that was executed for the first time in compiled code, and
+     * flushes the batch if it is due.
+     */
+    @TruffleBoundary
+    void add(CoverageNode node) {
+        node.recordCovered();
+        synchronized (this) {
+            final long now = System.nanoTime();
+            if (batch.isEmpty()) {
+                firstHit = now;
+            }
+            batch.add(node);
+            if (batch.size() >= limit || now - firstHit >= delayNanos) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Sets the covered flags of all nodes in the batch, then invalidates the code compiled while
+     * they were not set.
+     */
+    synchronized void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (CoverageNode node : batch) {
+            node.setCovered();
+        }
+        batch.clear();
+        final Assumption flushed = pending;
+        pending = createPending();
+        flushed.invalidate();
+        if (governor != null) {
+            governor.countInvalidation();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+/**
+ * The profile of a guest function, merged from the profiles of all threads when it is
+ * {@link SimpleProfilerInstrument#getProfiles() read}. Times are in nanoseconds of wall time, and
+ * include the time of the calls the function made.
+ */
+public final class FunctionProfile {
+
+    private final String name;
+    private final String sourceName;
+    private final int line;
+    private final long[] histogram;
+    private final long calls;
+
+    FunctionProfile(String name, String sourceName, int line, long[] histogram) {
+        this.name = name;
+        this.sourceName = sourceName;
+        this.line = line;
+        this.histogram = histogram;
+        this.calls = LatencyHistogram.count(histogram);
+    }
+
+    /**
+     * @return the name of the function, which may be empty or {@code null} for anonymous
+     *         functions.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the path of the source of the function, or its name if it has no path.
+     */
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    /**
+     * @return the line the function starts at, or 0 if it is not known.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getTotalNanos() {
+        return histogram[LatencyHistogram.TOTAL];
+    }
+
+    public long getMaxNanos() {
+        return histogram[LatencyHistogram.MAX];
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99 for the p99.
+     * @return the time that the given percentage of calls took at most, to within 1/16th.
+     */
+    public long getNanosAtPercentile(double percentile) {
+        return LatencyHistogram.valueAtPercentile(histogram, percentile);
+    }
+}
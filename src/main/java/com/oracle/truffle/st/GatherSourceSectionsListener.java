@@ -40,25 +40,50 @@
  */
 package com.oracle.truffle.st;
 
+import java.lang.ref.WeakReference;
+
 import com.oracle.truffle.api.instrumentation.LoadSourceSectionEvent;
 import com.oracle.truffle.api.instrumentation.LoadSourceSectionListener;
+import com.oracle.truffle.api.source.Source;
 import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.st.Coverage.LoadBatch;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
 
 /**
  * A listener for new {@link SourceSection}s being loaded.
  *
  * Because we
- * {@link SimpleCoverageInstrument#enable(com.oracle.truffle.api.instrumentation.TruffleInstrument.Env)
- * attached} an instance of this listener, each time a new {@link SourceSection} of interest is
+ * {@link SimpleCoverageInstrument#start() attached} an instance of this listener, each time a new {@link SourceSection} of interest is
  * loaded, we are notified in the
  * {@link #onLoad(com.oracle.truffle.api.instrumentation.LoadSourceSectionEvent) } method.
+ *
+ * Truffle notifies us of the sections of a source one by one, usually many in a row on the same
+ * thread, e.g. all statements of a function when it is parsed. Each thread therefore keeps the
+ * {@link Coverage} of the source it last loaded sections of, and collects the sections in a
+ * {@link LoadBatch} that is registered in bulk. Looking up the coverage of a source and taking its
+ * monitor is only done once per batch rather than once per section.
  */
 final class GatherSourceSectionsListener implements LoadSourceSectionListener {
 
     private final SimpleCoverageInstrument instrument;
 
-    GatherSourceSectionsListener(SimpleCoverageInstrument instrument) {
+    /**
+     * The granularity of the filter this listener was attached with, and so of all sections it is
+     * notified about.
+     */
+    private final Granularity granularity;
+
+    private final ThreadLocal<Loading> loading = new ThreadLocal<>();
+
+    /**
+     * Set once our binding is disposed, after which the batches our threads left open are closed
+     * by their {@link Coverage#closeDisposedBatches() coverage}.
+     */
+    private volatile boolean disposed;
+
+    GatherSourceSectionsListener(SimpleCoverageInstrument instrument, Granularity granularity) {
         this.instrument = instrument;
+        this.granularity = granularity;
     }
 
     /**
@@ -70,6 +95,53 @@ final class GatherSourceSectionsListener implements LoadSourceSectionListener {
     @Override
     public void onLoad(LoadSourceSectionEvent event) {
         final SourceSection sourceSection = event.getSourceSection();
-        instrument.addLoaded(sourceSection);
+        final String name = granularity == Granularity.ROOT ? event.getNode().getRootNode().getName() : null;
+        final Source source = sourceSection.getSource();
+        final CoverageStatistics statistics = instrument.getStatistics();
+        statistics.countSectionLoaded();
+        Loading current = loading.get();
+        if (current == null || current.source.get() != source || !current.batch.add(sourceSection, name)) {
+            // Only registering a batch takes the monitor of the coverage, so only that is timed.
+            final long start = System.nanoTime();
+            LoadBatch previous = null;
+            if (current != null) {
+                current.batch.close();
+                previous = current.batch;
+            }
+            final Coverage coverage = instrument.getCoverage(source);
+            final LoadBatch batch = coverage.openBatch(this, granularity, previous);
+            statistics.addLoadedTime(System.nanoTime() - start);
+            current = new Loading(source, batch, instrument.getSourceBinding(source, coverage, granularity));
+            loading.set(current);
+            current.batch.add(sourceSection, name);
+        }
+        if (current.binding != null) {
+            current.binding.onLoad(sourceSection);
+        }
+    }
+
+    void dispose() {
+        disposed = true;
+    }
+
+    boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * The source a thread is loading sections of. The source is only held weakly, so that a batch
+     * left open by a thread that loads no more code does not keep it alive.
+     */
+    private static final class Loading {
+
+        final WeakReference<Source> source;
+        final LoadBatch batch;
+        final SourceBinding binding;
+
+        Loading(Source source, LoadBatch batch, SourceBinding binding) {
+            this.source = new WeakReference<>(source);
+            this.batch = batch;
+            this.binding = binding;
+        }
     }
 }
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleContext;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * Finds the sections that are executed most often, when the instrument reports
+ * {@link SimpleCoverageInstrument#HOT_SECTIONS hot sections}, in memory that does not grow with the
+ * amount of loaded code. Counting every section, like {@link SimpleCoverageInstrument.Mode#COUNTS
+ * counts} mode does, needs a counter for each loaded section, which is too much for huge bundles.
+ *
+ * Instead each thread feeds the executions of its {@link CoverageNode}s into its own
+ * {@link Sketch}, which keeps a fixed number of counters, using the Space-Saving algorithm: a
+ * section that has a counter increments it, any other section takes over the counter with the
+ * lowest count and increments that, remembering the count it took over as its possible error. A
+ * section executed more often than the lowest count is therefore never evicted, and its count is
+ * never too low by more than the error. The sketches of all threads are merged when they are read,
+ * by adding their counts and errors. A section that was evicted from the sketch of one thread
+ * misses the executions counted there, so the merged counts are approximate, but with more
+ * counters than reported sections the hottest sections come out right.
+ *
+ * When a thread or its context is disposed, its sketch is merged into the {@link #retired}
+ * counts, which keep the sections with the highest counts, as many as a sketch has counters.
+ */
+public final class HotSections {
+
+    private final int top;
+    private final int capacity;
+
+    /**
+     * The sketches of all threads that run guest code, in all open contexts. A sketch is removed
+     * once its thread or context is disposed, after its counts were merged into the
+     * {@link #retired} counts.
+     */
+    private final Queue<Sketch> sketches = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The merged count and error of sections of disposed threads, by key. Guarded by
+     * {@link #retiredLock}, which is also held while the sketches are merged, so that a sketch is
+     * counted exactly once while it is retired.
+     */
+    private final Map<Long, long[]> retired = new HashMap<>();
+    private final Object retiredLock = new Object();
+
+    HotSections(int top, int capacity) {
+        this.top = top;
+        this.capacity = Math.max(top, capacity);
+    }
+
+    Sketch createSketch(TruffleContext context, Thread thread) {
+        final Sketch sketch = new Sketch(context, thread, capacity);
+        sketches.add(sketch);
+        return sketch;
+    }
+
+    /**
+     * Merges the sketch of a disposed thread, or the sketches of all threads of a disposed context
+     * if the thread is {@code null}, into the {@link #retired} counts. Once these hold twice as many
+     * sections as a sketch has counters, only the hottest ones are kept, so like a sketch they do
+     * not grow with the amount of loaded code.
+     */
+    void retire(TruffleContext context, Thread thread) {
+        synchronized (retiredLock) {
+            for (Iterator<Sketch> iterator = sketches.iterator(); iterator.hasNext();) {
+                final Sketch sketch = iterator.next();
+                if (sketch.context == context && (thread == null || sketch.thread == thread)) {
+                    sketch.addTo(retired);
+                    iterator.remove();
+                }
+            }
+            if (retired.size() > 2 * capacity) {
+                final List<Map.Entry<Long, long[]>> entries = new ArrayList<>(retired.entrySet());
+                entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+                for (Map.Entry<Long, long[]> entry : entries.subList(capacity, entries.size())) {
+                    retired.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the counts of all threads. Only the owning thread of a sketch changes its counters,
+     * so a sketch is {@link Sketch#resetRequested cleared} by its thread on the next execution it
+     * offers, and is left out of the merged counts until then.
+     */
+    void reset() {
+        synchronized (retiredLock) {
+            retired.clear();
+            for (Sketch sketch : sketches) {
+                sketch.resetRequested = true;
+            }
+        }
+    }
+
+    @TruffleBoundary
+    static void record(Sketch sketch, Coverage coverage, int sectionId) {
+        sketch.offer((long) coverage.index << 32 | sectionId);
+    }
+
+    /**
+     * @param coverages the live coverages, by {@link Coverage#index index}. Sections of other
+     *            coverages are left out, as we no longer know where they are.
+     * @return the hottest sections, the hottest first.
+     */
+    List<HotSection> getHotSections(Map<Integer, Coverage> coverages) {
+        final Map<Long, long[]> merged = new HashMap<>();
+        synchronized (retiredLock) {
+            for (Map.Entry<Long, long[]> entry : retired.entrySet()) {
+                merged.put(entry.getKey(), entry.getValue().clone());
+            }
+            for (Sketch sketch : sketches) {
+                sketch.addTo(merged);
+            }
+        }
+        final List<Map.Entry<Long, long[]>> entries = new ArrayList<>(merged.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        final List<HotSection> sections = new ArrayList<>(top);
+        for (Map.Entry<Long, long[]> entry : entries) {
+            if (sections.size() == top) {
+                break;
+            }
+            final Coverage coverage = coverages.get((int) (entry.getKey() >>> 32));
+            if (coverage != null) {
+                final long[] countAndError = entry.getValue();
+                coverage.visitSection((int) (long) entry.getKey(), (charIndex, charLength, startLine, endLine, granularity, name, isCovered, count) -> sections.add(
+                                new HotSection(coverage.getName(), startLine, endLine, charIndex, charLength, granularity, countAndError[0], countAndError[1])));
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * A section and how often it was executed.
+     */
+    public static final class HotSection {
+
+        private final String name;
+        private final int startLine;
+        private final int endLine;
+        private final int charIndex;
+        private final int charLength;
+        private final Granularity granularity;
+        private final long count;
+        private final long error;
+
+        HotSection(String name, int startLine, int endLine, int charIndex, int charLength, Granularity granularity, long count, long error) {
+            this.name = name;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.charIndex = charIndex;
+            this.charLength = charLength;
+            this.granularity = granularity;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * @return the {@link Coverage#getName() name} of the source of the section.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public int getStartLine() {
+            return startLine;
+        }
+
+        public int getEndLine() {
+            return endLine;
+        }
+
+        public int getCharIndex() {
+            return charIndex;
+        }
+
+        public int getCharLength() {
+            return charLength;
+        }
+
+        public Granularity getGranularity() {
+            return granularity;
+        }
+
+        /**
+         * @return the approximate number of executions of the section.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return by how much the {@link #getCount() count} may be too high, because the section
+         *         took over counters of other sections.
+         */
+        public long getError() {
+            return error;
+        }
+    }
+
+    /**
+     * The Space-Saving counters of one thread. The counters form a min-heap by count, so the
+     * counter with the lowest count is found at once, and an open addressing table finds the
+     * counter of a section, so each execution takes a hash lookup and a few swaps in the heap.
+     *
+     * Only the owning thread offers executions, without locking. It makes the {@link #version} odd
+     * while it changes the counters, so a reader that copies the counters knows it got a consistent
+     * copy if the version was the same even number before and after. A thread that executes guest
+     * code all the time may keep a reader from ever getting one, so after a few attempts the reader
+     * {@link #snapshotRequested asks} the owning thread to copy its counters after its next offer.
+     */
+    static final class Sketch {
+
+        /**
+         * The attempts to copy the counters of a running thread before asking it for a copy.
+         */
+        private static final int OPTIMISTIC_ATTEMPTS = 8;
+
+        final TruffleContext context;
+        final Thread thread;
+
+        private final AtomicInteger version = new AtomicInteger();
+        private volatile boolean snapshotRequested;
+        private volatile long[] snapshot;
+        /**
+         * Whether the owning thread is to clear the counters before its next offer.
+         */
+        private volatile boolean resetRequested;
+
+        private final long[] keys;
+        private final long[] counts;
+        private final long[] errors;
+        /**
+         * The counters by heap position, and the heap position of each counter.
+         */
+        private final int[] heap;
+        private final int[] positions;
+        private int size;
+        /**
+         * The table from the key of a section to its counter plus one, so that zero marks an empty
+         * slot.
+         */
+        private final long[] tableKeys;
+        private final int[] tableCounters;
+        private final int mask;
+
+        Sketch(TruffleContext context, Thread thread, int capacity) {
+            this.context = context;
+            this.thread = thread;
+            keys = new long[capacity];
+            counts = new long[capacity];
+            errors = new long[capacity];
+            heap = new int[capacity];
+            positions = new int[capacity];
+            final int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            tableKeys = new long[tableSize];
+            tableCounters = new int[tableSize];
+            mask = tableSize - 1;
+        }
+
+        /**
+         * Only called by the thread that owns the sketch.
+         */
+        void offer(long key) {
+            final int current = version.get();
+            version.lazySet(current + 1);
+            // The counters must not change before the version is odd.
+            VarHandle.storeStoreFence();
+            if (resetRequested) {
+                clear();
+                resetRequested = false;
+            }
+            update(key);
+            version.lazySet(current + 2);
+            if (snapshotRequested) {
+                snapshot = copy();
+                snapshotRequested = false;
+            }
+        }
+
+        private void update(long key) {
+            int slot = find(key);
+            if (tableCounters[slot] != 0) {
+                final int counter = tableCounters[slot] - 1;
+                counts[counter]++;
+                siftDown(positions[counter]);
+                return;
+            }
+            if (size < keys.length) {
+                final int counter = size++;
+                heap[counter] = counter;
+                positions[counter] = counter;
+                counts[counter] = 1;
+                put(slot, key, counter);
+                siftUp(counter);
+            } else {
+                final int counter = heap[0];
+                remove(keys[counter]);
+                put(find(key), key, counter);
+                errors[counter] = counts[counter];
+                counts[counter]++;
+                siftDown(0);
+            }
+        }
+
+        private void clear() {
+            size = 0;
+            Arrays.fill(errors, 0);
+            Arrays.fill(tableCounters, 0);
+        }
+
+        private void put(int slot, long key, int counter) {
+            keys[counter] = key;
+            tableKeys[slot] = key;
+            tableCounters[slot] = counter + 1;
+        }
+
+        /**
+         * @return the key, count and error of each counter.
+         */
+        private long[] copy() {
+            final int count = Math.min(size, keys.length);
+            final long[] copy = new long[count * 3];
+            for (int counter = 0; counter < count; counter++) {
+                copy[counter * 3] = keys[counter];
+                copy[counter * 3 + 1] = counts[counter];
+                copy[counter * 3 + 2] = errors[counter];
+            }
+            return copy;
+        }
+
+        /**
+         * @return a consistent copy of the counters, as by {@link #copy()}.
+         */
+        private long[] snapshot() {
+            for (int attempt = 0;; attempt++) {
+                final int before = version.get();
+                if ((before & 1) == 0) {
+                    final long[] copy = copy();
+                    // The counters must be read before the version is read again.
+                    VarHandle.acquireFence();
+                    if (version.get() == before) {
+                        return copy;
+                    }
+                }
+                if (attempt == OPTIMISTIC_ATTEMPTS) {
+                    snapshot = null;
+                    snapshotRequested = true;
+                } else if (attempt > OPTIMISTIC_ATTEMPTS) {
+                    final long[] copy = snapshot;
+                    if (copy != null) {
+                        return copy;
+                    }
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        void addTo(Map<Long, long[]> merged) {
+            if (resetRequested) {
+                return;
+            }
+            final long[] copy = snapshot();
+            for (int i = 0; i < copy.length; i += 3) {
+                final long[] countAndError = merged.computeIfAbsent(copy[i], k -> new long[2]);
+                countAndError[0] += copy[i + 1];
+                countAndError[1] += copy[i + 2];
+            }
+        }
+
+        private int home(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        private int find(long key) {
+            int slot = home(key);
+            while (tableCounters[slot] != 0 && tableKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Removes a key from the table, moving back the keys after it that can no longer be found
+         * otherwise, so the table needs no tombstones.
+         */
+        private void remove(long key) {
+            int hole = find(key);
+            tableCounters[hole] = 0;
+            for (int slot = (hole + 1) & mask; tableCounters[slot] != 0; slot = (slot + 1) & mask) {
+                if (((slot - home(tableKeys[slot])) & mask) >= ((slot - hole) & mask)) {
+                    tableKeys[hole] = tableKeys[slot];
+                    tableCounters[hole] = tableCounters[slot];
+                    tableCounters[slot] = 0;
+                    hole = slot;
+                }
+            }
+        }
+
+        private void siftUp(int position) {
+            int current = position;
+            while (current > 0) {
+                final int parent = (current - 1) / 2;
+                if (counts[heap[parent]] <= counts[heap[current]]) {
+                    return;
+                }
+                swap(current, parent);
+                current = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            int current = position;
+            while (true) {
+                final int left = 2 * current + 1;
+                if (left >= size) {
+                    return;
+                }
+                final int right = left + 1;
+                final int smallest = right < size && counts[heap[right]] < counts[heap[left]] ? right : left;
+                if (counts[heap[current]] <= counts[heap[smallest]]) {
+                    return;
+                }
+                swap(current, smallest);
+                current = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            final int counter = heap[a];
+            heap[a] = heap[b];
+            heap[b] = counter;
+            positions[heap[a]] = a;
+            positions[heap[b]] = b;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * Writes the report as a JSON document of the form
+ *
+ * <pre>
+ * {"sources": [{"path": "...", "lineCount": 10, "loadedLines": 5, "coveredLines": 4,
+ *               "lines": [{"line": 1, "covered": true, "hits": 1}, ...]}, ...]}
+ * </pre>
+ *
+ * where {@code lines} only lists loaded lines. If functions or expressions were recorded too, each
+ * source also has the number of loaded and covered sections of each recorded {@link Granularity}
+ * and its functions, before its lines:
+ *
+ * <pre>
+ * "sections": {"root": {"loaded": 2, "covered": 1}, "statement": {"loaded": 9, "covered": 7}},
+ * "functions": [{"name": "foo", "line": 3, "covered": true, "hits": 1}, ...],
+ * </pre>
+ *
+ * If {@link SimpleCoverageInstrument#COLUMNS columns} are reported, each loaded source also lists
+ * its not covered ranges, with inclusive end columns like a
+ * {@link com.oracle.truffle.api.source.SourceSection}:
+ *
+ * <pre>
+ * "nonCoveredRanges": [{"startLine": 1, "startColumn": 120, "endLine": 1, "endColumn": 164}, ...],
+ * </pre>
+ *
+ * If {@link SimpleCoverageInstrument#HOT_SECTIONS hot sections} are reported, they follow the
+ * sources, the hottest first:
+ *
+ * <pre>
+ * "hotSections": [{"path": "...", "startLine": 3, "endLine": 3, "charIndex": 42, "charLength": 9,
+ *                  "count": 1000000, "error": 12}, ...]
+ * </pre>
+ */
+final class JsonReportWriter extends CoverageReportWriter {
+
+    private boolean first = true;
+    private List<HotSections.HotSection> hotSections;
+
+    JsonReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void begin(int loadedLines, int coveredLines) throws IOException {
+        out.write("{\"loadedLines\":");
+        write(loadedLines);
+        out.write(",\"coveredLines\":");
+        write(coveredLines);
+        out.write(",\"sources\":[");
+    }
+
+    @Override
+    void writeSource(SourceReport report) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        first = false;
+        out.write("\n{\"path\":");
+        writeString(report.name);
+        out.write(",\"lineCount\":");
+        write(report.lineCount);
+        out.write(",\"loadedLines\":");
+        write(report.loadedLineCount);
+        out.write(",\"coveredLines\":");
+        write(report.coveredLineCount);
+        if (report.hasGranularities()) {
+            writeGranularities(report);
+        }
+        if (report.nonCoveredRanges != null) {
+            writeRanges(report);
+        }
+        out.write(",\"lines\":[");
+        final int firstLine = report.loadedLines.nextSetBit(0);
+        for (int i = firstLine; i >= 0; i = report.loadedLines.nextSetBit(i + 1)) {
+            if (i != firstLine) {
+                out.write(',');
+            }
+            out.write("{\"line\":");
+            write(i);
+            out.write(report.isCovered(i) ? ",\"covered\":true,\"hits\":" : ",\"covered\":false,\"hits\":");
+            write(report.hits(i));
+            out.write('}');
+        }
+        out.write("]}");
+    }
+
+    private void writeGranularities(SourceReport report) throws IOException {
+        out.write(",\"sections\":{");
+        boolean firstGranularity = true;
+        for (Granularity granularity : Granularity.VALUES) {
+            final int loaded = report.loadedSections(granularity);
+            if (loaded > 0) {
+                out.write(firstGranularity ? "\"" : ",\"");
+                out.write(granularity.name().toLowerCase());
+                out.write("\":{\"loaded\":");
+                write(loaded);
+                out.write(",\"covered\":");
+                write(report.coveredSections(granularity));
+                out.write('}');
+                firstGranularity = false;
+            }
+        }
+        out.write("},\"functions\":[");
+        boolean firstFunction = true;
+        for (SourceReport.Function function : report.functions) {
+            out.write(firstFunction ? "{\"name\":" : ",{\"name\":");
+            writeString(function.name);
+            out.write(",\"line\":");
+            write(function.line);
+            out.write(function.covered ? ",\"covered\":true,\"hits\":" : ",\"covered\":false,\"hits\":");
+            write(function.hits);
+            out.write('}');
+            firstFunction = false;
+        }
+        out.write(']');
+    }
+
+    private void writeRanges(SourceReport report) throws IOException {
+        out.write(",\"nonCoveredRanges\":[");
+        final int[] ranges = report.nonCoveredRanges;
+        for (int i = 0; i < ranges.length; i += 2) {
+            final int last = ranges[i + 1] - 1;
+            out.write(i == 0 ? "{\"startLine\":" : ",{\"startLine\":");
+            write(report.source.getLineNumber(ranges[i]));
+            out.write(",\"startColumn\":");
+            write(report.source.getColumnNumber(ranges[i]));
+            out.write(",\"endLine\":");
+            write(report.source.getLineNumber(last));
+            out.write(",\"endColumn\":");
+            write(report.source.getColumnNumber(last));
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    @Override
+    void writeHotSections(List<HotSections.HotSection> sections) throws IOException {
+        // Written by end, after the sources array is closed.
+        hotSections = sections;
+    }
+
+    @Override
+    void end() throws IOException {
+        out.write("\n]");
+        if (hotSections != null) {
+            out.write(",\"hotSections\":[");
+            boolean firstSection = true;
+            for (HotSections.HotSection section : hotSections) {
+                out.write(firstSection ? "\n{\"path\":" : ",\n{\"path\":");
+                writeString(section.getName());
+                out.write(",\"startLine\":");
+                write(section.getStartLine());
+                out.write(",\"endLine\":");
+                write(section.getEndLine());
+                out.write(",\"charIndex\":");
+                write(section.getCharIndex());
+                out.write(",\"charLength\":");
+                write(section.getCharLength());
+                out.write(",\"count\":");
+                write(section.getCount());
+                out.write(",\"error\":");
+                write(section.getError());
+                out.write('}');
+                firstSection = false;
+            }
+            out.write("\n]");
+        }
+        out.write("}\n");
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
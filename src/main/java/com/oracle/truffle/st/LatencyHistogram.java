@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, in the style of an HDR histogram: values below
+ * {@link #SUB_BUCKET_COUNT} each have their own bucket, above that each power of two is split into
+ * half as many equally wide buckets. A recorded value is thus known to within 1/16th of it, at any
+ * magnitude, with a fixed number of buckets. Values of {@link #MAX_VALUE} or more, about 18
+ * minutes, are recorded as {@link #MAX_VALUE}.
+ *
+ * A histogram has a single writer, the thread whose {@link ThreadProfile} it belongs to, so
+ * {@link #record(long) recording} a value needs no atomic read-modify-write, only ordered stores
+ * that other threads read when they {@link #addTo(long[]) merge} the histograms of all threads.
+ * A reader may see a value in some buckets but not yet in the totals, which is fine for a profile.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    static final long MAX_VALUE = (1L << 40) - 1;
+    static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    /**
+     * The slots after the buckets in the {@link #counts} array and in merged histograms.
+     */
+    static final int TOTAL = BUCKETS;
+    static final int MAX = BUCKETS + 1;
+    static final int LENGTH = BUCKETS + 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LENGTH);
+
+    /**
+     * Only called by the thread that owns the histogram.
+     */
+    void record(long nanos) {
+        final int index = index(nanos);
+        counts.lazySet(index, counts.get(index) + 1);
+        counts.lazySet(TOTAL, counts.get(TOTAL) + nanos);
+        if (nanos > counts.get(MAX)) {
+            counts.lazySet(MAX, nanos);
+        }
+    }
+
+    /**
+     * Adds the buckets and totals of this histogram to a merged histogram of {@link #LENGTH}.
+     */
+    void addTo(long[] merged) {
+        for (int i = 0; i < TOTAL; i++) {
+            merged[i] += counts.get(i);
+        }
+        merged[TOTAL] += counts.get(TOTAL);
+        merged[MAX] = Math.max(merged[MAX], counts.get(MAX));
+    }
+
+    /**
+     * Adds a merged histogram to another one.
+     */
+    static void add(long[] from, long[] merged) {
+        for (int i = 0; i < MAX; i++) {
+            merged[i] += from[i];
+        }
+        merged[MAX] = Math.max(merged[MAX], from[MAX]);
+    }
+
+    static int index(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        final long value = Math.min(nanos, MAX_VALUE);
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value that is recorded in the bucket.
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >>> (SUB_BUCKET_BITS - 1)) - 1;
+        final long subBucket = (index & (SUB_BUCKET_HALF - 1)) | SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @param merged a merged histogram
+     * @return the number of recorded values.
+     */
+    static long count(long[] merged) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += merged[i];
+        }
+        return count;
+    }
+
+    /**
+     * @param merged a merged histogram
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket that the given percentage of recorded values is at
+     *         or below, but at most the highest recorded value, or 0 if nothing was recorded.
+     */
+    static long valueAtPercentile(long[] merged, double percentile) {
+        final long count = count(merged);
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += merged[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), merged[MAX]);
+            }
+        }
+        return merged[MAX];
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the report in the LCOV tracefile format understood by {@code genhtml} and most CI
+ * coverage tools. Each source is one record with a {@code DA} entry per loaded line, preceded by
+ * {@code FN} and {@code FNDA} entries per function if {@link SourceReport#functions functions}
+ * were recorded.
+ */
+final class LcovReportWriter extends CoverageReportWriter {
+
+    LcovReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void writeSource(SourceReport report) throws IOException {
+        out.write("TN:\nSF:");
+        out.write(report.name);
+        out.write('\n');
+        if (!report.functions.isEmpty()) {
+            writeFunctions(report);
+        }
+        for (int i = report.loadedLines.nextSetBit(0); i >= 0; i = report.loadedLines.nextSetBit(i + 1)) {
+            out.write("DA:");
+            write(i);
+            out.write(',');
+            write(report.hits(i));
+            out.write('\n');
+        }
+        out.write("LF:");
+        write(report.loadedLineCount);
+        out.write("\nLH:");
+        write(report.coveredLineCount);
+        out.write("\nend_of_record\n");
+    }
+
+    private void writeFunctions(SourceReport report) throws IOException {
+        for (SourceReport.Function function : report.functions) {
+            out.write("FN:");
+            write(function.line);
+            out.write(',');
+            writeName(function);
+            out.write('\n');
+        }
+        int hit = 0;
+        for (SourceReport.Function function : report.functions) {
+            out.write("FNDA:");
+            write(function.hits);
+            out.write(',');
+            writeName(function);
+            out.write('\n');
+            if (function.covered) {
+                hit++;
+            }
+        }
+        out.write("FNF:");
+        write(report.functions.size());
+        out.write("\nFNH:");
+        write(hit);
+        out.write('\n');
+    }
+
+    /**
+     * LCOV identifies functions by name, so anonymous functions are named after their line.
+     */
+    private void writeName(SourceReport.Function function) throws IOException {
+        if (function.name.isEmpty()) {
+            out.write("(anonymous_");
+            write(function.line);
+            out.write(')');
+        } else {
+            out.write(function.name);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+/**
+ * Bounds the overhead of the instrument, for coverage that is always on in production.
+ *
+ * If a {@link SimpleCoverageInstrument#SAMPLE_WINDOW sample window} is set, coverage is only
+ * recorded for that long once every {@link SimpleCoverageInstrument#SAMPLE_PERIOD sample period}.
+ * A system thread opens and closes the windows, but the instrumentation stays attached, as
+ * attaching it again for each window would instrument the program again and invalidate all of its
+ * compiled code. Instead the {@link CoverageNode}s check {@link #isRecording() whether a window is
+ * open}, a flag the compiler folds like their covered flag, guarded by an {@link Assumption} that
+ * is invalidated when the window opens or closes. A node that already covered its section does not
+ * check it, so only code that still records something is invalidated at a window boundary. The
+ * coverage of all windows adds up, so code that runs regularly is eventually covered.
+ *
+ * Independently, the instrument can be given a budget of {@link CoverageNode}s it may create and of
+ * times its nodes may invalidate compiled code when they cover a statement. Both costs are paid
+ * once per statement rather than per execution, so they bound the throughput cost of the
+ * instrument. Once either budget is exceeded, the instrumentation is detached for good and the
+ * coverage recorded so far is kept. Nodes re-armed for a new {@link TestEpochs test epoch} are
+ * not counted, as they are paid per test rather than once.
+ */
+final class OverheadGovernor {
+
+    private final SimpleCoverageInstrument instrument;
+    private final long window;
+    private final long period;
+    private final long nodeBudget;
+    private final long invalidationBudget;
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final PrintStream err;
+    private final Thread thread;
+
+    /**
+     * Set once a budget is exceeded, guarded by this object for waiting.
+     */
+    private volatile boolean exceeded;
+
+    /**
+     * Whether a sample window is open, always {@code true} if there are no windows. Only changed by
+     * the governor thread, which replaces and invalidates the assumption after each change.
+     */
+    @CompilationFinal private boolean recording = true;
+    @CompilationFinal private Assumption recordingUnchanged = Assumption.create("sample window");
+
+    OverheadGovernor(Env env, SimpleCoverageInstrument instrument, long window, long period, long nodeBudget, long invalidationBudget) {
+        this.instrument = instrument;
+        this.window = window;
+        this.period = Math.max(period, window);
+        this.nodeBudget = nodeBudget;
+        this.invalidationBudget = invalidationBudget;
+        this.err = new PrintStream(env.err(), true);
+        this.thread = env.createSystemThread(this::run);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * @return whether a sample window is open, folded by the compiler until the next window
+     *         boundary.
+     */
+    boolean isRecording() {
+        if (!recordingUnchanged.isValid()) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+        }
+        return recording;
+    }
+
+    private void setRecording(boolean value) {
+        if (recording != value) {
+            recording = value;
+            final Assumption changed = recordingUnchanged;
+            recordingUnchanged = Assumption.create("sample window");
+            changed.invalidate();
+        }
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Called for each {@link CoverageNode} that is created.
+     */
+    void countNode() {
+        nodes.increment();
+        if (nodeBudget > 0 && !exceeded && nodes.sum() > nodeBudget) {
+            exceed();
+        }
+    }
+
+    /**
+     * Called each time a {@link CoverageNode} invalidates compiled code. Only called in the
+     * interpreter.
+     */
+    void countInvalidation() {
+        invalidations.increment();
+        if (invalidationBudget > 0 && !exceeded && invalidations.sum() > invalidationBudget) {
+            exceed();
+        }
+    }
+
+    /**
+     * The instrumentation is not detached on the guest thread that exceeded the budget, as it may
+     * be in the middle of instrumenting or executing code. The governor thread does it instead.
+     */
+    private synchronized void exceed() {
+        exceeded = true;
+        notifyAll();
+    }
+
+    void close() {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!exceeded) {
+                if (window > 0) {
+                    setRecording(true);
+                    awaitExceeded(window);
+                    setRecording(false);
+                    awaitExceeded(period - window);
+                } else {
+                    awaitExceeded(Long.MAX_VALUE);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The instrument is finalized.
+            return;
+        }
+        instrument.stop();
+        err.println("[" + SimpleCoverageInstrument.ID + "] Overhead budget exceeded after " + nodes.sum() + " nodes and " + invalidations.sum() + " invalidations, coverage is no longer recorded.");
+    }
+
+    private synchronized void awaitExceeded(long millis) throws InterruptedException {
+        if (millis == Long.MAX_VALUE) {
+            while (!exceeded) {
+                wait();
+            }
+            return;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = deadline - System.nanoTime();
+        while (!exceeded && remaining > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
+
+/**
+ * Node that wraps the root of each guest function, as defined by the filter of the
+ * {@link SimpleProfilerInstrument}, and times each call of the function.
+ *
+ * Unlike a {@link CoverageNode}, this node is never done: it has to record every call. It keeps no
+ * state itself, since the function may be called on many threads at once, and the ASTs, and thus
+ * our nodes, may be shared by several contexts. Instead it finds the {@link ThreadProfile} of the
+ * current thread in a {@link ContextThreadLocal}, which compiled code reads without a lookup, and
+ * records the call there.
+ */
+final class ProfilerNode extends ExecutionEventNode {
+
+    private final ContextThreadLocal<ThreadProfile> threadProfile;
+
+    /**
+     * The {@link SimpleProfilerInstrument.Function#id id} of the function whose root we wrap.
+     */
+    private final int function;
+
+    ProfilerNode(ContextThreadLocal<ThreadProfile> threadProfile, int function) {
+        this.threadProfile = threadProfile;
+        this.function = function;
+    }
+
+    @Override
+    public void onEnter(VirtualFrame frame) {
+        threadProfile.get().enter();
+    }
+
+    @Override
+    public void onReturnValue(VirtualFrame frame, Object result) {
+        threadProfile.get().exit(function);
+    }
+
+    /**
+     * A call that throws is timed like any other, otherwise the stack of call start times of the
+     * thread would no longer match its calls.
+     */
+    @Override
+    public void onReturnExceptional(VirtualFrame frame, Throwable exception) {
+        threadProfile.get().exit(function);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the {@link CoverageSummary summaries} of sources that are no longer loaded, when the
+ * instrument {@link SimpleCoverageInstrument#RETENTION retains summaries}.
+ *
+ * Summaries are kept in memory up to a {@link SimpleCoverageInstrument#RETENTION_LIMIT limit} of
+ * estimated bytes. Once the limit is exceeded, the oldest summaries are spilled to a temporary file
+ * and only read back when the results are requested, usually once at the end of execution. Should
+ * spilling fail, the summaries stay in memory, as losing coverage is worse than exceeding the
+ * limit.
+ *
+ * Sources with the same {@link SourceKey key} may be loaded and released many times, so
+ * {@link #getSummaries()} merges all summaries of a key into one.
+ */
+final class RetiredCoverage {
+
+    private final long limit;
+    private final ArrayDeque<CoverageSummary> summaries = new ArrayDeque<>();
+    /**
+     * Written with our monitor held, but read without it.
+     */
+    private volatile long bytes;
+    private Path spillFile;
+    private DataOutputStream spill;
+    private int spilledCount;
+
+    /**
+     * @param limit the maximum estimated bytes of summaries kept in memory, or {@code 0} for no
+     *            limit.
+     */
+    RetiredCoverage(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the estimated bytes of the summaries kept in memory.
+     */
+    long estimatedBytes() {
+        return bytes;
+    }
+
+    synchronized void add(CoverageSummary summary) {
+        summaries.addLast(summary);
+        bytes += summary.estimatedBytes();
+        while (limit > 0 && bytes > limit && summaries.size() > 1) {
+            final CoverageSummary oldest = summaries.peekFirst();
+            if (!spill(oldest)) {
+                break;
+            }
+            summaries.removeFirst();
+            bytes -= oldest.estimatedBytes();
+        }
+    }
+
+    private boolean spill(CoverageSummary summary) {
+        try {
+            if (spill == null) {
+                spillFile = Files.createTempFile(SimpleCoverageInstrument.ID, ".spill");
+                spillFile.toFile().deleteOnExit();
+                spill = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+            }
+            summary.writeTo(spill);
+            spilledCount++;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return all retired summaries, including the spilled ones, merged by key and ordered by the
+     *         first time each key was retired.
+     */
+    synchronized List<CoverageSummary> getSummaries() throws IOException {
+        final Map<SourceKey, CoverageSummary> merged = new LinkedHashMap<>();
+        if (spill != null) {
+            spill.flush();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)))) {
+                for (int i = 0; i < spilledCount; i++) {
+                    final CoverageSummary summary = CoverageSummary.readFrom(in);
+                    merged.merge(summary.getKey(), summary, CoverageSummary::merge);
+                }
+            }
+        }
+        for (CoverageSummary summary : summaries) {
+            merged.merge(summary.getKey(), summary, CoverageSummary::merge);
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Forgets all retired summaries.
+     */
+    synchronized void clear() {
+        dispose();
+        summaries.clear();
+        bytes = 0;
+        spilledCount = 0;
+    }
+
+    synchronized void dispose() {
+        if (spill != null) {
+            try {
+                spill.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // The file is also deleted on exit.
+            }
+            spill = null;
+        }
+    }
+}
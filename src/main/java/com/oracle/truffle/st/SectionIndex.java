@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A static index of {@code [start, end)} intervals, e.g. the character or line ranges of the
+ * sections of a {@link Coverage}, that finds the intervals overlapping a query range in
+ * logarithmic time plus the number of results, no matter how deeply the intervals nest.
+ *
+ * The intervals are sorted by start and kept in flat arrays, which are read as an implicit
+ * balanced binary tree: the interval at index {@code i} is a node whose level is the number of
+ * trailing one bits of {@code i}, so even indices are leaves and the root is in the middle. Each
+ * node also stores the largest end of its subtree. A query walks down from the root and skips
+ * every subtree whose largest end lies before the query, or whose smallest start lies after it.
+ *
+ * The index does not know whether intervals are covered, it only maps ranges to the ids it was
+ * built with, so it stays valid while sections are covered. It must be rebuilt once sections are
+ * added.
+ */
+final class SectionIndex {
+
+    /**
+     * Subtrees of at most this level are scanned linearly, as that is cheaper than walking them.
+     */
+    private static final int SCAN_LEVEL = 3;
+
+    private final int size;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final int[] ids;
+    private final int rootLevel;
+
+    /**
+     * @param starts the inclusive start of each interval, indexed by id
+     * @param ends the exclusive end of each interval, indexed by id
+     * @param ids the ids of the intervals to index, which may be a subset of all ids. The array is
+     *            sorted in place.
+     * @param size the number of ids
+     */
+    SectionIndex(int[] starts, int[] ends, int[] ids, int size) {
+        this.size = size;
+        // Sort the ids by start by packing both into longs, which avoids boxing.
+        final long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) starts[ids[i]] << 32) | ids[i];
+        }
+        Arrays.sort(order);
+        this.starts = new int[size];
+        this.ends = new int[size];
+        this.maxEnds = new int[size];
+        this.ids = ids;
+        for (int i = 0; i < size; i++) {
+            ids[i] = (int) order[i];
+            this.starts[i] = starts[ids[i]];
+            this.ends[i] = ends[ids[i]];
+        }
+        this.rootLevel = computeMaxEnds();
+    }
+
+    /**
+     * Computes the largest end of each subtree, level by level from the leaves.
+     *
+     * @return the level of the root
+     */
+    private int computeMaxEnds() {
+        if (size == 0) {
+            return -1;
+        }
+        int lastIndex = 0;
+        int lastMax = 0;
+        for (int i = 0; i < size; i += 2) {
+            lastIndex = i;
+            maxEnds[i] = lastMax = ends[i];
+        }
+        int level = 1;
+        for (; (1 << level) <= size; level++) {
+            final int half = 1 << (level - 1);
+            final int step = half << 2;
+            for (int i = (half << 1) - 1; i < size; i += step) {
+                final int left = maxEnds[i - half];
+                // The right subtree may be incomplete, in which case its largest end is that of the
+                // last node of the previous level.
+                final int right = i + half < size ? maxEnds[i + half] : lastMax;
+                maxEnds[i] = Math.max(ends[i], Math.max(left, right));
+            }
+            lastIndex = ((lastIndex >> level) & 1) != 0 ? lastIndex - half : lastIndex + half;
+            if (lastIndex < size) {
+                lastMax = Math.max(lastMax, maxEnds[lastIndex]);
+            }
+        }
+        return level - 1;
+    }
+
+    /**
+     * @return a rough estimate of the bytes used by the index, four ints per section.
+     */
+    long estimatedBytes() {
+        return 16L * size;
+    }
+
+    /**
+     * Passes the id of each interval overlapping {@code [start, end)} to the consumer, in no
+     * particular order.
+     */
+    void forEachOverlapping(int start, int end, IntConsumer consumer) {
+        if (size == 0) {
+            return;
+        }
+        // Each frame is a level, a node index and whether its left subtree was visited.
+        final int[] stack = new int[(rootLevel + 2) * 3];
+        int top = 0;
+        stack[top++] = rootLevel;
+        stack[top++] = (1 << rootLevel) - 1;
+        stack[top++] = 0;
+        while (top > 0) {
+            final boolean leftVisited = stack[--top] != 0;
+            final int node = stack[--top];
+            final int level = stack[--top];
+            if (level <= SCAN_LEVEL) {
+                final int first = (node >> level) << level;
+                final int last = Math.min(first + (1 << (level + 1)) - 1, size);
+                for (int i = first; i < last && starts[i] < end; i++) {
+                    if (start < ends[i]) {
+                        consumer.accept(ids[i]);
+                    }
+                }
+            } else if (!leftVisited) {
+                stack[top++] = level;
+                stack[top++] = node;
+                stack[top++] = 1;
+                final int left = node - (1 << (level - 1));
+                if (left >= size || maxEnds[left] > start) {
+                    stack[top++] = level - 1;
+                    stack[top++] = left;
+                    stack[top++] = 0;
+                }
+            } else if (node < size && starts[node] < end) {
+                if (start < ends[node]) {
+                    consumer.accept(ids[node]);
+                }
+                stack[top++] = level - 1;
+                stack[top++] = node + (1 << (level - 1));
+                stack[top++] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of section ids, as given by
+ * {@link Coverage#addLoaded(com.oracle.truffle.api.source.SourceSection, SimpleCoverageInstrument.Granularity, String)}.
+ *
+ * Adding and testing ids never takes a lock, as this is done by every thread that executes a newly
+ * covered section. The ids are stored in pages of bits that are updated atomically, and only
+ * growing the set by another page is synchronized.
+ */
+final class SectionSet {
+
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile long[][] pages = new long[0][];
+
+    /**
+     * @return {@code true} if the id was not in the set before this call
+     */
+    boolean add(int id) {
+        final int page = id >>> PAGE_SHIFT;
+        long[][] current = pages;
+        if (page >= current.length) {
+            current = grow(page);
+        }
+        final long mask = 1L << id;
+        final long previous = (long) WORDS.getAndBitwiseOr(current[page], wordIndex(id), mask);
+        return (previous & mask) == 0;
+    }
+
+    /**
+     * @return the bytes of the pages of the set.
+     */
+    long estimatedBytes() {
+        return (long) pages.length * (PAGE_SIZE / 8 + 16);
+    }
+
+    boolean contains(int id) {
+        final int page = id >>> PAGE_SHIFT;
+        final long[][] current = pages;
+        if (page >= current.length) {
+            return false;
+        }
+        final long word = (long) WORDS.getVolatile(current[page], wordIndex(id));
+        return (word & (1L << id)) != 0;
+    }
+
+    /**
+     * @return the number of ids in the set.
+     */
+    int count() {
+        int count = 0;
+        for (long[] page : pages) {
+            for (int i = 0; i < page.length; i++) {
+                count += Long.bitCount((long) WORDS.getVolatile(page, i));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Passes each id in the set to the consumer, in ascending order.
+     */
+    void forEach(IntConsumer consumer) {
+        final long[][] current = pages;
+        for (int page = 0; page < current.length; page++) {
+            for (int i = 0; i < current[page].length; i++) {
+                long word = (long) WORDS.getVolatile(current[page], i);
+                while (word != 0) {
+                    consumer.accept((page << PAGE_SHIFT) + i * Long.SIZE + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all ids. Ids added concurrently may or may not be removed.
+     */
+    void clear() {
+        for (long[] page : pages) {
+            for (int i = 0; i < page.length; i++) {
+                WORDS.setVolatile(page, i, 0L);
+            }
+        }
+    }
+
+    private synchronized long[][] grow(int page) {
+        final long[][] current = pages;
+        if (page < current.length) {
+            return current;
+        }
+        final long[][] grown = Arrays.copyOf(current, Math.max(page + 1, current.length * 2));
+        for (int i = current.length; i < grown.length; i++) {
+            grown[i] = new long[PAGE_SIZE / Long.SIZE];
+        }
+        pages = grown;
+        return grown;
+    }
+
+    private static int wordIndex(int id) {
+        return (id & (PAGE_SIZE - 1)) >>> 6;
+    }
+}
@@ -40,28 +40,74 @@
  */
 package com.oracle.truffle.st;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 import org.graalvm.options.OptionCategory;
 import org.graalvm.options.OptionDescriptors;
 import org.graalvm.options.OptionKey;
 import org.graalvm.options.OptionStability;
+import org.graalvm.options.OptionType;
 import org.graalvm.options.OptionValues;
 
+import com.oracle.truffle.api.ContextLocal;
+import com.oracle.truffle.api.ContextThreadLocal;
 import com.oracle.truffle.api.Option;
+import com.oracle.truffle.api.TruffleContext;
+import com.oracle.truffle.api.instrumentation.ContextsListener;
+import com.oracle.truffle.api.instrumentation.EventBinding;
 import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceFilter;
 import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.api.instrumentation.StandardTags.ExpressionTag;
+import com.oracle.truffle.api.instrumentation.StandardTags.RootTag;
 import com.oracle.truffle.api.instrumentation.StandardTags.StatementTag;
+import com.oracle.truffle.api.instrumentation.Tag;
+import com.oracle.truffle.api.instrumentation.ThreadsListener;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument.Registration;
+import com.oracle.truffle.api.nodes.LanguageInfo;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.source.Source;
 import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.st.CoverageSnapshot.SnapshotSource;
 
 /**
  * Example for simple version of an expression coverage instrument.
@@ -95,18 +141,541 @@ public final class SimpleCoverageInstrument extends TruffleInstrument {
      */
     @Option(name = "PrintCoverage", help = "Print coverage to stdout on process exit (default: true).", category = OptionCategory.USER, stability = OptionStability.STABLE)
     static final OptionKey<Boolean> PRINT_COVERAGE = new OptionKey<>(true);
+
+    /**
+     * Look at {@link #printResults(Env)} for more info.
+     */
+    @Option(name = "OutputFile", help = "Write the coverage report to this file instead of stdout.", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> OUTPUT_FILE = new OptionKey<>("");
+
+    /**
+     * Look at {@link #printResults(Env)} and {@link Format} for more info.
+     */
+    @Option(name = "OutputFormat", help = "Format of the coverage report: 'text', 'lcov', 'cobertura', 'json' or a binary 'snapshot' (default: text).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Format> OUTPUT_FORMAT = new OptionKey<>(Format.TEXT, new OptionType<>("Format", Format::fromString));
+
+    /**
+     * Look at {@link #printResults(Env)} for more info.
+     */
+    @Option(name = "ReportTimeLimit", help = "Maximum time in milliseconds spent computing the report on exit. Sources not computed in time are left out, 0 for no limit (default: 0).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> REPORT_TIME_LIMIT = new OptionKey<>(0L);
+
+    /**
+     * Look at {@link SourceReport#nonCoveredColumns(int)} for more info.
+     */
+    @Option(name = "Columns", help = "Report the not covered columns of lines in text and JSON reports, e.g. for minified code (default: false).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Boolean> COLUMNS = new OptionKey<>(false);
+
+    /**
+     * Look at {@link SourceMatcher} for more info.
+     */
+    @Option(name = "Include", help = "Only cover sources whose path or name matches one of these comma separated globs, e.g. 'src/**' (default: all sources).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> INCLUDE = new OptionKey<>("");
+
+    /**
+     * Look at {@link SourceMatcher} for more info.
+     */
+    @Option(name = "Exclude", help = "Do not cover sources whose path or name matches one of these comma separated globs, e.g. '**/node_modules/**,*.min.js'.", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> EXCLUDE = new OptionKey<>("");
+
+    /**
+     * Look at {@link #onCreate(Env)} for more info.
+     */
+    @Option(name = "Languages", help = "Only cover sources of these comma separated language ids, e.g. 'js,python' (default: all languages).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> LANGUAGES = new OptionKey<>("");
+
+    /**
+     * Look at {@link #onCreate(Env)} for more info.
+     */
+    @Option(name = "MimeTypes", help = "Only cover sources of these comma separated MIME types (default: all MIME types).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> MIME_TYPES = new OptionKey<>("");
+
+    /**
+     * Look at {@link #getCoverage(Source)} and {@link Retention} for more info.
+     */
+    @Option(name = "Retention", help = "What to keep of sources that are no longer loaded: 'full' keeps the sources, 'summary' only their line coverage (default: full).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Retention> RETENTION = new OptionKey<>(Retention.FULL, new OptionType<>("Retention", Retention::fromString));
+
+    /**
+     * Look at {@link RetiredCoverage} for more info.
+     */
+    @Option(name = "RetentionLimit", help = "Maximum bytes of summaries of unloaded sources kept in memory before spilling them to disk, 0 for no limit (default: 0).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> RETENTION_LIMIT = new OptionKey<>(0L);
+
+    /**
+     * Look at {@link #onCreate(Env)} and {@link Mode} for more info.
+     */
+    @Option(name = "Mode", help = "What to record for each statement: 'coverage' or execution 'counts' (default: coverage).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Mode> MODE = new OptionKey<>(Mode.COVERAGE, new OptionType<>("Mode", Mode::fromString));
+
+    /**
+     * Look at {@link #createFilters(OptionValues)} and {@link Granularity} for more info.
+     */
+    @Option(name = "Granularity", help = "Comma separated granularities to record: 'root' functions, 'statement's and 'expression's (default: statement).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Set<Granularity>> GRANULARITY = new OptionKey<>(EnumSet.of(Granularity.STATEMENT), new OptionType<>("Granularity", Granularity::fromList));
+
+    /**
+     * Look at {@link #onCreate(Env)} and {@link SourceBinding} for more info.
+     */
+    @Option(name = "RemoveCovered", help = "Remove the instrumentation of statements once they are covered. Ignored in counts mode (default: false).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Boolean> REMOVE_COVERED = new OptionKey<>(false);
+
+    /**
+     * Look at {@link #onCreate(Env)} and {@link ContextCoverage} for more info.
+     */
+    @Option(name = "PerContext", help = "Also record the coverage of each context. Disables RemoveCovered (default: false).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Boolean> PER_CONTEXT = new OptionKey<>(false);
+
+    /**
+     * Look at {@link TestEpochs} for more info.
+     */
+    @Option(name = "TestEpochs", help = "Record which tests cover which statements, with test boundaries marked through the service. Disables RemoveCovered (default: false).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Boolean> TEST_EPOCHS = new OptionKey<>(false);
+
+    /**
+     * Look at {@link CoverageFile} for more info.
+     */
+    @Option(name = "MappedFile", help = "Mirror the live coverage to this memory-mapped file, so that other processes can read it.", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> MAPPED_FILE = new OptionKey<>("");
+
+    /**
+     * Look at {@link CoverageFile} for more info.
+     */
+    @Option(name = "MappedFileSize", help = "Size in bytes of the mapped file. Sections that do not fit are not mirrored (default: 67108864).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> MAPPED_FILE_SIZE = new OptionKey<>(64L * 1024 * 1024);
+
+    /**
+     * Look at {@link #startPublishingCounts(Env, long)} for more info.
+     */
+    @Option(name = "MappedFileInterval", help = "Milliseconds between writes of execution counts to the mapped file in counts mode (default: 1000).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> MAPPED_FILE_INTERVAL = new OptionKey<>(1000L);
+
+    /**
+     * Look at {@link SnapshotExporter} for more info.
+     */
+    @Option(name = "ExportDirectory", help = "Periodically export the sections loaded or covered since the previous export as snapshots to this directory.", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> EXPORT_DIRECTORY = new OptionKey<>("");
+
+    /**
+     * Look at {@link SnapshotExporter} for more info.
+     */
+    @Option(name = "ExportInterval", help = "Milliseconds between exports to the export directory (default: 60000).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> EXPORT_INTERVAL = new OptionKey<>(60000L);
+
+    /**
+     * Look at {@link #loadBaseline(Env, String)} for more info.
+     */
+    @Option(name = "Baseline", help = "Snapshot, or directory of snapshots, of an earlier run. Sections it covered are not instrumented, unless counting, and reports include its results (default: none).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<String> BASELINE = new OptionKey<>("");
+
+    /**
+     * Look at {@link OverheadGovernor} for more info.
+     */
+    @Option(name = "SampleWindow", help = "Only record coverage for windows of this many milliseconds, one per sample period (default: 0, always record).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> SAMPLE_WINDOW = new OptionKey<>(0L);
+
+    /**
+     * Look at {@link OverheadGovernor} for more info.
+     */
+    @Option(name = "SamplePeriod", help = "Milliseconds from the start of one sample window to the start of the next (default: 60000).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> SAMPLE_PERIOD = new OptionKey<>(60000L);
+
+    /**
+     * Look at {@link OverheadGovernor} for more info.
+     */
+    @Option(name = "NodeBudget", help = "Stop recording coverage for good once this many statements were instrumented (default: 0, no limit).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> NODE_BUDGET = new OptionKey<>(0L);
+
+    /**
+     * Look at {@link OverheadGovernor} for more info.
+     */
+    @Option(name = "InvalidationBudget", help = "Stop recording coverage for good once covering statements invalidated compiled code this many times (default: 0, no limit).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> INVALIDATION_BUDGET = new OptionKey<>(0L);
+
+    /**
+     * Look at {@link HotSections} for more info.
+     */
+    @Option(name = "HotSections", help = "Also report this many sections executed most often, counted approximately in memory that does not grow with the loaded code. Disables RemoveCovered (default: 0, none).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Integer> HOT_SECTIONS = new OptionKey<>(0);
+
+    /**
+     * Look at {@link HotSections} for more info.
+     */
+    @Option(name = "HotSectionsCapacity", help = "Counters each thread keeps to find the hot sections. More counters make the counts more accurate (default: 1024).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Integer> HOT_SECTIONS_CAPACITY = new OptionKey<>(1024);
+
+    /**
+     * Look at {@link FirstHits} for more info.
+     */
+    @Option(name = "FirstHitBatch", help = "Invalidate compiled code once for up to this many statements covered for the first time in it, instead of once for each (default: 0, invalidate for each).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Integer> FIRST_HIT_BATCH = new OptionKey<>(0);
+
+    /**
+     * Look at {@link FirstHits} for more info.
+     */
+    @Option(name = "FirstHitDelay", help = "Milliseconds after which a batch of first hits is flushed even if it is not full, checked on the next first hit (default: 100).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Long> FIRST_HIT_DELAY = new OptionKey<>(100L);
+
+    /**
+     * Look at {@link #start()} for more info.
+     */
+    @Option(name = "Dormant", help = "Do not record coverage until the instrument is started through its service (default: false).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Boolean> DORMANT = new OptionKey<>(false);
     // @formatter:on
 
     public static final String ID = "simple-code-coverage";
 
     /**
-     * The instrument keeps a mapping between a {@link Source} and {@link Coverage coverage} data
-     * for that source. Coverage tracks loaded and covered {@link SourceSection} during execution.
+     * What the instrument records for each {@link SourceSection}.
+     */
+    public enum Mode {
+        /**
+         * Only whether the section was executed.
+         */
+        COVERAGE,
+        /**
+         * How many times the section was executed, in addition to coverage.
+         */
+        COUNTS;
+
+        static Mode fromString(String value) {
+            return parse(Mode.class, value);
+        }
+    }
+
+    /**
+     * What a section is: the code of a whole function, a statement or an expression. Truffle has
+     * no notion of these itself, it only knows the {@link Tag tags} a language puts on its AST
+     * nodes, so each granularity is the {@link StandardTags standard tag} for that kind of node.
+     * Languages are free to tag as much or as little as they want, e.g. a language might not tag
+     * expressions at all, in which case expression coverage is empty.
+     */
+    public enum Granularity {
+        /**
+         * The code of a function, i.e. of a {@link RootTag root}. Reports show the name of each.
+         */
+        ROOT(RootTag.class),
+        /**
+         * A {@link StatementTag statement}.
+         */
+        STATEMENT(StatementTag.class),
+        /**
+         * An {@link ExpressionTag expression}. Expressions nest, so there are often several on
+         * one line.
+         */
+        EXPRESSION(ExpressionTag.class);
+
+        /**
+         * All granularities, indexed by {@link #ordinal()}, without the copy {@link #values()}
+         * makes.
+         */
+        static final Granularity[] VALUES = values();
+
+        final Class<? extends Tag> tag;
+
+        Granularity(Class<? extends Tag> tag) {
+            this.tag = tag;
+        }
+
+        static Set<Granularity> fromList(String value) {
+            final Set<Granularity> granularities = EnumSet.noneOf(Granularity.class);
+            for (String granularity : SourceMatcher.split(value)) {
+                granularities.add(parse(Granularity.class, granularity));
+            }
+            if (granularities.isEmpty()) {
+                throw new IllegalArgumentException("Expected at least one granularity.");
+            }
+            return granularities;
+        }
+    }
+
+    /**
+     * The format of the report written at the end of execution.
+     */
+    public enum Format {
+        /**
+         * The source text with each line marked as covered or not.
+         */
+        TEXT,
+        /**
+         * An LCOV tracefile.
+         */
+        LCOV,
+        /**
+         * Cobertura XML.
+         */
+        COBERTURA,
+        /**
+         * A JSON document.
+         */
+        JSON,
+        /**
+         * A binary {@link CoverageSnapshot} that keeps individual sections, for {@link SnapshotMerger
+         * merging} with snapshots of other runs.
+         */
+        SNAPSHOT;
+
+        static Format fromString(String value) {
+            return parse(Format.class, value);
+        }
+    }
+
+    /**
+     * What the instrument keeps of sources that are no longer used.
+     */
+    public enum Retention {
+        /**
+         * Keep every {@link Source} for the lifetime of the engine. Reports include the source
+         * text.
+         */
+        FULL,
+        /**
+         * Only hold sources weakly. Once a source is garbage collected, its {@link Coverage} is
+         * replaced by a {@link CoverageSummary}.
+         */
+        SUMMARY;
+
+        static Retention fromString(String value) {
+            return parse(Retention.class, value);
+        }
+    }
+
+    private static <E extends Enum<E>> E parse(Class<E> enumClass, String value) {
+        final StringBuilder expected = new StringBuilder();
+        for (E constant : enumClass.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value)) {
+                return constant;
+            }
+            expected.append(expected.length() == 0 ? "'" : ", '").append(constant.name().toLowerCase()).append("'");
+        }
+        throw new IllegalArgumentException("Unknown " + enumClass.getSimpleName().toLowerCase() + " '" + value + "'. Expected one of " + expected + ".");
+    }
+
+    private boolean counting;
+    private boolean removeCovered;
+    private boolean retainSummaries;
+    private boolean perContext;
+    private TestEpochs testEpochs;
+    private OverheadGovernor governor;
+    private FirstHits firstHits;
+    private final CoverageStatistics statistics = new CoverageStatistics(this);
+    /**
+     * The hook that emits the periodic {@link CoverageEvents.Statistics statistics events}.
+     */
+    private Runnable periodicStatistics;
+    private HotSections hotSections;
+    private RetiredCoverage retired;
+    private CoverageFile coverageFile;
+    private Thread countsPublisher;
+    private SnapshotExporter exporter;
+    /**
+     * The sources of the {@link #BASELINE baseline} that were not loaded yet, or {@code null}. A
+     * source whose coverage was seeded only stays here if it also has summarized lines.
+     */
+    private Map<SourceKey, SnapshotSource> baseline;
+    private final ReferenceQueue<Source> releasedSources = new ReferenceQueue<>();
+    private Instrumenter instrumenter;
+    private Map<Granularity, SourceSectionFilter> filters;
+
+    /**
+     * The bindings attached for each {@link #GRANULARITY granularity} while the instrument is
+     * {@link #start() started}, guarded by this instrument. There are no execution bindings if
+     * covered instrumentation is {@link #REMOVE_COVERED removed}.
+     */
+    private final Map<Granularity, EventBinding<GatherSourceSectionsListener>> loadBindings = new EnumMap<>(Granularity.class);
+    private final Map<Granularity, EventBinding<CoverageEventFactory>> executionBindings = new EnumMap<>(Granularity.class);
+    private boolean started;
+
+    /**
+     * The per source bindings of each granularity, only used if covered instrumentation is
+     * {@link #REMOVE_COVERED removed}. A binding needs its {@link Source} to instrument code that
+     * is loaded later, so sources are never released in that mode, even if we
+     * {@link #RETENTION retain} only summaries.
+     */
+    private final Map<Granularity, Map<Source, SourceBinding>> sourceBindings = new EnumMap<>(Granularity.class);
+
+    /**
+     * The {@link SourceBinding}s waiting to remove the instrumentation of their covered sections,
+     * only used if covered instrumentation is {@link #REMOVE_COVERED removed}. A
+     * {@link Env#createSystemThread(Runnable) system thread} rebinds them, so that a guest thread
+     * never attaches or disposes a binding while it executes a {@link CoverageNode}.
+     */
+    private final BlockingQueue<SourceBinding> pendingRebinds = new LinkedBlockingQueue<>();
+    private Thread rebinder;
+
+    /**
+     * The coverage of each context, only used if we record coverage {@link #PER_CONTEXT per
+     * context}. Context locals must be created when the instrument is constructed, before we know
+     * the options, but a {@link ContextCoverage} is cheap until the context covers something.
+     */
+    private final ContextLocal<ContextCoverage> contextCoverage = locals.createContextLocal(context -> new ContextCoverage(this, context));
+
+    /**
+     * The {@link HotSections.Sketch} of each thread of each context, only used if we report
+     * {@link #HOT_SECTIONS hot sections}.
+     */
+    private final ContextThreadLocal<HotSections.Sketch> hotSketch = locals.createContextThreadLocal((context, thread) -> hotSections != null ? hotSections.createSketch(context, thread) : null);
+
+    /**
+     * The {@link ContextCoverage} of each open context, in the order the contexts were created.
+     */
+    private final Map<TruffleContext, ContextCoverage> contextCoverages = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * Gives each {@link Coverage} its {@link Coverage#index index}.
+     */
+    private final AtomicInteger coverageCount = new AtomicInteger();
+
+    /**
+     * The instrument keeps a mapping between a {@link SourceKey source identity} and
+     * {@link Coverage coverage} data for that source. Coverage tracks loaded and covered
+     * {@link SourceSection} during execution. Sources with the same path and content share a
+     * single coverage, so their results are merged. The map is concurrent so that sources loaded by
+     * different threads do not contend on a single instrument-wide lock.
+     */
+    final Map<SourceKey, Coverage> coverageMap = new ConcurrentHashMap<>();
+
+    /**
+     * Maps each loaded {@link Source} to the {@link Coverage} of its key, so that the content of a
+     * source is only hashed the first time it is seen. The sources are held through
+     * {@link SourceRef}s, so that they can be released if we {@link #RETENTION retain} only
+     * summaries.
+     */
+    private final Map<SourceRef, Coverage> loadedSources = new ConcurrentHashMap<>();
+
+    /**
+     * Sources with the same path and content share the same {@link Coverage}.
+     *
+     * @return the coverage of the sources that are currently loaded.
+     */
+    public Map<Source, Coverage> getCoverageMap() {
+        expungeReleasedSources();
+        final Map<Source, Coverage> result = new HashMap<>();
+        for (Map.Entry<SourceRef, Coverage> entry : loadedSources.entrySet()) {
+            final Source source = entry.getKey().get();
+            if (source != null) {
+                result.put(source, entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Only available if the instrument records coverage {@link #PER_CONTEXT per context}. The
+     * coverage of a context is dropped when the context is closed, its results remain part of the
+     * coverage of the engine.
+     *
+     * @return the coverage of each open context, in the order the contexts were created.
+     */
+    public List<ContextCoverage> getContextCoverages() {
+        synchronized (contextCoverages) {
+            return new ArrayList<>(contextCoverages.values());
+        }
+    }
+
+    /**
+     * Only available if the instrument records coverage {@link #PER_CONTEXT per context}.
+     *
+     * @param context an open context
+     * @return the coverage of the context, or {@code null} if it is not known.
+     */
+    public ContextCoverage getContextCoverage(TruffleContext context) {
+        return contextCoverages.get(context);
+    }
+
+    /**
+     * Exports the sections loaded or covered since the previous export now, instead of at the end
+     * of the current {@link #EXPORT_INTERVAL interval}. The export is done by the exporter thread,
+     * so this does not block the caller.
+     *
+     * @return a future of the written snapshot, or of {@code null} if nothing changed.
+     * @throws IllegalStateException if no {@link #EXPORT_DIRECTORY export directory} is set
+     */
+    public CompletableFuture<Path> exportSnapshot() {
+        if (exporter == null) {
+            throw new IllegalStateException("No export directory is set.");
+        }
+        return exporter.request();
+    }
+
+    /**
+     * Only available if the instrument records {@link #TEST_EPOCHS test epochs}.
+     *
+     * @return the test epochs, used to mark test boundaries and to look up the tests of a section,
+     *         or {@code null}.
+     */
+    public TestEpochs getTestEpochs() {
+        return testEpochs;
+    }
+
+    /**
+     * @return the governor of the instrument's overhead, or {@code null} if it has no
+     *         {@link #SAMPLE_WINDOW sample window} nor budget.
      */
-    final Map<Source, Coverage> coverageMap = new HashMap<>();
+    OverheadGovernor getOverheadGovernor() {
+        return governor;
+    }
 
-    public synchronized Map<Source, Coverage> getCoverageMap() {
-        return Collections.unmodifiableMap(coverageMap);
+    /**
+     * @return the {@link ContextThreadLocal} of the {@link HotSections.Sketch}es, or {@code null}
+     *         if we do not report {@link #HOT_SECTIONS hot sections}.
+     */
+    ContextThreadLocal<HotSections.Sketch> getHotSketchLocal() {
+        return hotSections != null ? hotSketch : null;
+    }
+
+    /**
+     * Only available if the instrument reports {@link #HOT_SECTIONS hot sections}. The counts of
+     * sources that are no longer loaded are not included.
+     *
+     * @return the sections executed most often so far, the hottest first, or {@code null}.
+     */
+    public List<HotSections.HotSection> getHotSections() {
+        if (hotSections == null) {
+            return null;
+        }
+        final Map<Integer, Coverage> coverages = new HashMap<>();
+        for (Coverage coverage : coverageMap.values()) {
+            coverages.put(coverage.index, coverage);
+        }
+        return hotSections.getHotSections(coverages);
+    }
+
+    /**
+     * @return the counters of the instrument's own work.
+     */
+    public CoverageStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return an estimate of the bytes retained for the sections of live sources and the
+     *         summaries of sources that are no longer loaded.
+     */
+    long estimatedBytes() {
+        long bytes = 0;
+        for (Coverage coverage : coverageMap.values()) {
+            bytes += coverage.estimatedBytes();
+        }
+        return retired == null ? bytes : bytes + retired.estimatedBytes();
+    }
+
+    /**
+     * @return the batch of first hits in compiled code, or {@code null} if they are not
+     *         {@link #FIRST_HIT_BATCH batched}.
+     */
+    FirstHits getFirstHits() {
+        return firstHits;
+    }
+
+    /**
+     * Only used if we {@link #RETENTION retain} summaries.
+     *
+     * @return the coverage of the sources that are no longer loaded.
+     */
+    public List<CoverageSummary> getCoverageSummaries() throws IOException {
+        expungeReleasedSources();
+        return retired == null ? Collections.emptyList() : retired.getSummaries();
     }
 
     /**
@@ -130,22 +699,132 @@ public final class SimpleCoverageInstrument extends TruffleInstrument {
     protected void onCreate(final Env env) {
         final OptionValues options = env.getOptions();
         if (ENABLED.getValue(options)) {
-            enable(env);
+            counting = MODE.getValue(options) == Mode.COUNTS;
+            perContext = PER_CONTEXT.getValue(options);
+            if (TEST_EPOCHS.getValue(options)) {
+                testEpochs = new TestEpochs();
+            }
+            final String baselinePath = BASELINE.getValue(options);
+            if (!baselinePath.isEmpty()) {
+                loadBaseline(env, baselinePath);
+            }
+            final int hotSectionCount = HOT_SECTIONS.getValue(options);
+            if (hotSectionCount > 0) {
+                hotSections = new HotSections(hotSectionCount, HOT_SECTIONS_CAPACITY.getValue(options));
+            }
+            removeCovered = (REMOVE_COVERED.getValue(options) || baseline != null) && !counting && !perContext && testEpochs == null && hotSections == null;
+            retainSummaries = RETENTION.getValue(options) == Retention.SUMMARY;
+            if (retainSummaries) {
+                retired = new RetiredCoverage(RETENTION_LIMIT.getValue(options));
+            }
+            final String mappedFile = MAPPED_FILE.getValue(options);
+            if (!mappedFile.isEmpty()) {
+                try {
+                    coverageFile = CoverageFile.create(Paths.get(mappedFile), MAPPED_FILE_SIZE.getValue(options), counting);
+                } catch (IOException e) {
+                    new PrintStream(env.err(), true).println("[" + ID + "] Failed to map " + mappedFile + ": " + e.getMessage());
+                }
+                if (coverageFile != null && counting) {
+                    startPublishingCounts(env, MAPPED_FILE_INTERVAL.getValue(options));
+                }
+            }
+            final String exportDirectory = EXPORT_DIRECTORY.getValue(options);
+            if (!exportDirectory.isEmpty()) {
+                try {
+                    exporter = new SnapshotExporter(env, coverageMap.values(), Files.createDirectories(Paths.get(exportDirectory)), EXPORT_INTERVAL.getValue(options));
+                    exporter.start();
+                } catch (IOException e) {
+                    new PrintStream(env.err(), true).println("[" + ID + "] Failed to create " + exportDirectory + ": " + e.getMessage());
+                }
+            }
+            filters = createFilters(options);
+            if (removeCovered) {
+                for (Granularity granularity : filters.keySet()) {
+                    sourceBindings.put(granularity, new ConcurrentHashMap<>());
+                }
+                startRebinding(env);
+            }
+            instrumenter = env.getInstrumenter();
+            if (perContext) {
+                instrumenter.attachContextsListener(new ContextCoverageListener(), true);
+            }
+            if (hotSections != null) {
+                final HotSketchListener hotSketchListener = new HotSketchListener();
+                instrumenter.attachThreadsListener(hotSketchListener, false);
+                instrumenter.attachContextsListener(hotSketchListener, false);
+            }
+            final long sampleWindow = SAMPLE_WINDOW.getValue(options);
+            final long nodeBudget = NODE_BUDGET.getValue(options);
+            final long invalidationBudget = INVALIDATION_BUDGET.getValue(options);
+            if (sampleWindow > 0 || nodeBudget > 0 || invalidationBudget > 0) {
+                governor = new OverheadGovernor(env, this, sampleWindow, SAMPLE_PERIOD.getValue(options), nodeBudget, invalidationBudget);
+            }
+            final int firstHitBatch = FIRST_HIT_BATCH.getValue(options);
+            if (firstHitBatch > 0) {
+                firstHits = new FirstHits(firstHitBatch, FIRST_HIT_DELAY.getValue(options), governor);
+            }
+            if (!DORMANT.getValue(options)) {
+                start();
+            }
+            if (governor != null) {
+                governor.start();
+            }
+            periodicStatistics = CoverageEvents.addPeriodic(statistics);
             env.registerService(this);
         }
     }
 
     /**
-     * Enable the instrument.
+     * Creates the filters of the code we instrument, one for each {@link #GRANULARITY
+     * granularity}: all nodes with its tag and an available source section, in sources that are
+     * not internal and pass the {@link #INCLUDE include}, {@link #EXCLUDE exclude},
+     * {@link #LANGUAGES language} and {@link #MIME_TYPES MIME type} options. Sources are filtered
+     * by Truffle before they are instrumented, so excluded sources never get wrappers nor load
+     * events and cost nothing.
+     *
+     * A node may have several tags, e.g. an expression statement, so we use a filter, and later a
+     * binding, per granularity rather than a single filter for all tags. That way each binding
+     * knows the granularity of the sections it sees without asking the node.
+     */
+    private static Map<Granularity, SourceSectionFilter> createFilters(OptionValues options) {
+        final SourceFilter.Builder sources = SourceFilter.newBuilder().includeInternal(false);
+        final String[] languages = SourceMatcher.split(LANGUAGES.getValue(options));
+        if (languages.length > 0) {
+            sources.languageIs(languages);
+        }
+        final SourceMatcher matcher = SourceMatcher.create(INCLUDE.getValue(options), EXCLUDE.getValue(options));
+        if (matcher != null) {
+            sources.sourceIs(matcher);
+        }
+        final SourceFilter sourceFilter = sources.build();
+        final String[] mimeTypes = SourceMatcher.split(MIME_TYPES.getValue(options));
+        final Map<Granularity, SourceSectionFilter> filters = new EnumMap<>(Granularity.class);
+        for (Granularity granularity : GRANULARITY.getValue(options)) {
+            final SourceSectionFilter.Builder builder = SourceSectionFilter.newBuilder().tagIs(granularity.tag).includeInternal(false).sourceSectionAvailableOnly(true).sourceFilter(sourceFilter);
+            if (mimeTypes.length > 0) {
+                builder.mimeTypeIs(mimeTypes);
+            }
+            filters.put(granularity, builder.build());
+        }
+        return filters;
+    }
+
+    /**
+     * Start recording coverage, unless it is already recorded. This is done when the instrument is
+     * created, unless it is {@link #DORMANT dormant}, but the instrument can also be started and
+     * {@link #stop() stopped} through its service, e.g. to only record coverage for a time window.
      *
-     * In this method we enable and configure the instrument. We do this by first creating a
-     * {@link SourceSectionFilter} instance in order to specify exactly which parts of the source
-     * code we are interested in. In this particular case, we are interested in expressions. Since
-     * Truffle Instruments are language agnostic, they rely on language implementers to tag AST
-     * nodes with adequate tags. This, we tell our {@link SourceSectionFilter.Builder} that we are
-     * care about AST nodes {@link SourceSectionFilter.Builder#tagIs(java.lang.Class...) tagged}
-     * with {@link ExpressionTag}. We also tell it we don't care about AST nodes
-     * {@link SourceSectionFilter.Builder#includeInternal(boolean) internal} to languages.
+     * In this method we attach the instrumentation, which is configured in {@link #onCreate(Env)}.
+     * There, we first {@link #createFilters(OptionValues) create} a {@link SourceSectionFilter}
+     * instance per {@link Granularity} in order to specify exactly which parts of the source code
+     * we are interested in, by default statements. Since Truffle Instruments are language
+     * agnostic, they rely on language implementers to tag AST nodes with adequate tags. Thus, we
+     * tell our {@link SourceSectionFilter.Builder} that we care about AST nodes
+     * {@link SourceSectionFilter.Builder#tagIs(java.lang.Class...) tagged} with e.g.
+     * {@link StatementTag}. We also tell it we don't care about AST nodes
+     * {@link SourceSectionFilter.Builder#includeInternal(boolean) internal} to languages, nor about
+     * nodes without an {@link SourceSectionFilter.Builder#sourceSectionAvailableOnly(boolean)
+     * available} source section, as we identify sections by their character range.
      *
      * After than, we use the {@link Env enviroment} to obtain the {@link Instrumenter}, which
      * allows us to specify in which way we wish to instrument the AST.
@@ -164,71 +843,460 @@ public final class SimpleCoverageInstrument extends TruffleInstrument {
      * by the filter. Each of the inserted nodes will, once executed, remove the corresponding
      * source section from the {@link #coverageMap set of unexecuted source sections}.
      *
-     * @param env The environment, used to get the {@link Instrumenter}
+     * If covered instrumentation is {@link #REMOVE_COVERED removed}, the factory is not attached
+     * here. Instead each source gets its own {@link SourceBinding} when its first section is loaded.
+     *
+     * If coverage is recorded {@link #PER_CONTEXT per context}, we also
+     * {@link Instrumenter#attachContextsListener(ContextsListener, boolean) listen} to contexts
+     * being created and closed, so that we know the {@link ContextCoverage} of each open context.
+     * That listener is attached in {@link #onCreate(Env)} and stays attached while the instrument
+     * is stopped, as it costs nothing on the execution path and contexts may be closed while we are
+     * stopped.
+     *
+     * Both listeners are attached for existing code too, so code that was loaded while the
+     * instrument was stopped is found and instrumented when it is started, without reparsing it.
      */
-    private void enable(final Env env) {
-        SourceSectionFilter filter = SourceSectionFilter.newBuilder().tagIs(StatementTag.class).includeInternal(false).build();
-        Instrumenter instrumenter = env.getInstrumenter();
-        instrumenter.attachLoadSourceSectionListener(filter, new GatherSourceSectionsListener(this), true);
-        instrumenter.attachExecutionEventFactory(filter, new CoverageEventFactory(this));
+    public synchronized void start() {
+        if (!loadBindings.isEmpty()) {
+            return;
+        }
+        started = true;
+        for (Map.Entry<Granularity, SourceSectionFilter> entry : filters.entrySet()) {
+            final Granularity granularity = entry.getKey();
+            loadBindings.put(granularity, instrumenter.attachLoadSourceSectionListener(entry.getValue(), new GatherSourceSectionsListener(this, granularity), true));
+            if (!removeCovered) {
+                executionBindings.put(granularity, instrumenter.attachExecutionEventFactory(entry.getValue(), new CoverageEventFactory(this, null, granularity)));
+            }
+        }
+    }
+
+    /**
+     * Stop recording coverage, unless it is already stopped. Disposing the bindings removes the
+     * {@link CoverageNode}s from the AST, so stopped code runs as if the instrument was not
+     * installed. The recorded coverage is kept, until it is {@link #reset() reset}.
+     *
+     * The {@link Coverage.LoadBatch batches} of sections that the threads of the disposed
+     * {@link GatherSourceSectionsListener}s left open are registered and closed, so that they are
+     * not kept and drained by every query after each restart.
+     */
+    public synchronized void stop() {
+        if (loadBindings.isEmpty()) {
+            return;
+        }
+        for (EventBinding<GatherSourceSectionsListener> loadBinding : loadBindings.values()) {
+            loadBinding.dispose();
+            loadBinding.getElement().dispose();
+        }
+        loadBindings.clear();
+        for (Coverage coverage : coverageMap.values()) {
+            coverage.closeDisposedBatches();
+        }
+        for (EventBinding<CoverageEventFactory> executionBinding : executionBindings.values()) {
+            executionBinding.dispose();
+        }
+        executionBindings.clear();
+        for (Map<Source, SourceBinding> bindings : sourceBindings.values()) {
+            for (SourceBinding sourceBinding : bindings.values()) {
+                sourceBinding.dispose();
+            }
+        }
+        if (firstHits != null) {
+            // The batch holds on to nodes that are no longer attached.
+            firstHits.flush();
+        }
+    }
+
+    /**
+     * @return whether the instrument is {@link #start() started}.
+     */
+    public synchronized boolean isRunning() {
+        return !loadBindings.isEmpty();
+    }
+
+    /**
+     * Forgets which sections were covered and how often they were executed, in all contexts, and
+     * the summaries of sources that are no longer loaded. The loaded sections are kept, so sources
+     * are neither reparsed nor reloaded. The {@link #getTestEpochs() tests} of the sections, the
+     * {@link #getHotSections() hot sections} and what was {@link #exportSnapshot() exported} as
+     * covered are forgotten too.
+     *
+     * A {@link CoverageNode} does not look at its section again once it was covered, so if the
+     * instrument is running, it is stopped and started again. Truffle then replaces the nodes of
+     * the existing ASTs with new ones.
+     */
+    public synchronized void reset() {
+        final boolean running = isRunning();
+        stop();
+        for (Coverage coverage : coverageMap.values()) {
+            coverage.reset();
+        }
+        for (ContextCoverage coverage : getContextCoverages()) {
+            coverage.reset();
+        }
+        if (retired != null) {
+            retired.clear();
+        }
+        if (testEpochs != null) {
+            testEpochs.reset();
+        }
+        if (hotSections != null) {
+            hotSections.reset();
+        }
+        if (exporter != null) {
+            exporter.reset();
+        }
+        if (running) {
+            start();
+        }
     }
 
     /**
      * Ensures that the coverage info gathered by the instrument is printed at the end of execution.
      *
+     * Both the report and the whole of finalizing are timed, and emitted as
+     * {@link CoverageEvents.Report report} and {@link CoverageEvents.Finalize finalize} events, as
+     * a large report can hold up the exit of the process. Like the report, the events are only
+     * emitted if the instrument was {@link #start() started}, and only if the flight recorder is
+     * {@link CoverageEvents#AVAILABLE available}.
+     *
      * @param env
      */
     @Override
     protected void onFinalize(Env env) {
-        if (PRINT_COVERAGE.getValue(env.getOptions())) {
-            printResults(env);
+        final CoverageEvents.Finalize finalizeEvent = started && CoverageEvents.AVAILABLE ? new CoverageEvents.Finalize() : null;
+        if (finalizeEvent != null) {
+            finalizeEvent.begin();
+        }
+        final long finalizeStart = System.nanoTime();
+        if (governor != null) {
+            governor.close();
+        }
+        if (rebinder != null) {
+            rebinder.interrupt();
+            try {
+                rebinder.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (started && PRINT_COVERAGE.getValue(env.getOptions())) {
+            final CoverageEvents.Report reportEvent = CoverageEvents.AVAILABLE ? new CoverageEvents.Report() : null;
+            if (reportEvent != null) {
+                reportEvent.begin();
+            }
+            final long reportStart = System.nanoTime();
+            printResults(env, reportEvent);
+            statistics.setReportTime(System.nanoTime() - reportStart);
+            if (reportEvent != null) {
+                reportEvent.commit();
+            }
+        }
+        if (retired != null) {
+            retired.dispose();
+        }
+        if (coverageFile != null) {
+            closeCoverageFile(env);
+        }
+        if (exporter != null) {
+            exporter.close();
+        }
+        if (periodicStatistics != null) {
+            CoverageEvents.removePeriodic(periodicStatistics);
+        }
+        statistics.setFinalizeTime(System.nanoTime() - finalizeStart);
+        if (finalizeEvent != null) {
+            finalizeEvent.commit();
+        }
+    }
+
+    /**
+     * Execution counts change on every execution, so they are not written to the
+     * {@link CoverageFile} by the {@link CoverageNode}s. Instead a
+     * {@link Env#createSystemThread(Runnable) system thread} writes the counts of all sources
+     * every {@link #MAPPED_FILE_INTERVAL interval}.
+     */
+    private void startPublishingCounts(Env env, long interval) {
+        countsPublisher = env.createSystemThread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(interval);
+                    publishCounts();
+                }
+            } catch (InterruptedException e) {
+                // The instrument is finalized.
+            }
+        });
+        countsPublisher.setDaemon(true);
+        countsPublisher.start();
+    }
+
+    /**
+     * Rebinding a {@link SourceBinding} invalidates the compiled code of its source and may
+     * instrument much of it again, so neither the {@link CoverageNode}s nor the threads that load
+     * code do it. They only {@link #scheduleRebind(SourceBinding) schedule} it, and a
+     * {@link Env#createSystemThread(Runnable) system thread} does it.
+     */
+    private void startRebinding(Env env) {
+        rebinder = env.createSystemThread(() -> {
+            try {
+                while (true) {
+                    pendingRebinds.take().rebindCovered();
+                }
+            } catch (InterruptedException e) {
+                // The instrument is finalized.
+            }
+        });
+        rebinder.setDaemon(true);
+        rebinder.start();
+    }
+
+    void scheduleRebind(SourceBinding sourceBinding) {
+        pendingRebinds.add(sourceBinding);
+    }
+
+    private void publishCounts() {
+        for (Coverage coverage : coverageMap.values()) {
+            coverage.publishCounts();
+        }
+    }
+
+    private void closeCoverageFile(Env env) {
+        if (countsPublisher != null) {
+            countsPublisher.interrupt();
+            try {
+                countsPublisher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            publishCounts();
+        }
+        try {
+            coverageFile.close();
+        } catch (IOException e) {
+            new PrintStream(env.err(), true).println("[" + ID + "] Failed to close " + MAPPED_FILE.getValue(env.getOptions()) + ": " + e.getMessage());
         }
     }
 
     /**
      * Print the coverage results for each source.
      *
-     * The printing is one the the {@link Env#out output stream} specified by the {@link Env
-     * enviroment}.
+     * The report is written in the {@link #OUTPUT_FORMAT requested format} either to the
+     * {@link #OUTPUT_FILE output file} or, if none is given, to the {@link Env#out output stream}
+     * specified by the {@link Env enviroment}. In both cases we write through a buffered
+     * {@link Writer} on top of a {@link WritableByteChannel}, and each source is written as soon as
+     * its results are computed.
+     *
+     * The results of the sources are {@link #computeReports(long) computed in parallel}, but always
+     * written in the same order. If a {@link #REPORT_TIME_LIMIT time limit} is set, sources that
+     * could not be computed in time are left out of the report, so that a large report never holds
+     * up the exit of the process. Every computed source is written, so that the totals in the
+     * header of a report cover exactly the sources in its body.
      *
      * @param env
+     * @param event the event to record the size of the report in, or {@code null}
      */
-    private synchronized void printResults(final Env env) {
-        final PrintStream printStream = new PrintStream(env.out());
-        for (Source source : coverageMap.keySet()) {
-            printResult(printStream, source);
+    private void printResults(final Env env, CoverageEvents.Report event) {
+        final OptionValues options = env.getOptions();
+        final Format format = OUTPUT_FORMAT.getValue(options);
+        if (event != null) {
+            event.format = format.name().toLowerCase();
+        }
+        final String outputFile = OUTPUT_FILE.getValue(options);
+        final long timeLimit = REPORT_TIME_LIMIT.getValue(options);
+        final long deadline = timeLimit > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeLimit) : 0;
+        if (format == Format.SNAPSHOT) {
+            printSnapshot(env, outputFile);
+            return;
+        }
+        final List<SourceReport> pending;
+        try {
+            pending = pendingReports(COLUMNS.getValue(options));
+        } catch (IOException e) {
+            new PrintStream(env.err(), true).println("[" + ID + "] Failed to read retained coverage: " + e.getMessage());
+            return;
+        }
+        final int sourceCount = pending.size();
+        if (event != null) {
+            event.sourceCount = sourceCount;
+        }
+        final List<SourceReport> reports = computeReports(pending, deadline);
+        int written = 0;
+        try {
+            if (outputFile.isEmpty()) {
+                written = writeReport(Channels.newChannel(env.out()), format, reports, getHotSections());
+            } else {
+                try (FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    written = writeReport(channel, format, reports, getHotSections());
+                }
+            }
+        } catch (IOException e) {
+            new PrintStream(env.err(), true).println("[" + ID + "] Failed to write coverage report: " + e.getMessage());
+            return;
+        }
+        if (event != null) {
+            event.written = written;
+        }
+        if (written < sourceCount) {
+            new PrintStream(env.err(), true).println("[" + ID + "] Report time limit of " + timeLimit + "ms exceeded, reported " + written + " of " + sourceCount + " sources.");
         }
     }
 
-    private void printResult(PrintStream printStream, Source source) {
-        String path = source.getPath();
-        int lineCount = source.getLineCount();
-        Set<Integer> nonCoveredLineNumbers = nonCoveredLineNumbers(source);
-        Set<Integer> loadedLineNumbers = coverageMap.get(source).loadedLineNumbers();
-        double coveredPercentage = 100 * ((double) loadedLineNumbers.size() - nonCoveredLineNumbers.size()) / lineCount;
-        printStream.println("==");
-        printStream.println("Coverage of " + path + " is " + String.format("%.2f%%", coveredPercentage));
-        for (int i = 1; i <= source.getLineCount(); i++) {
-            char covered = getCoverageCharacter(nonCoveredLineNumbers, loadedLineNumbers, i);
-            printStream.println(String.format("%s %s", covered, source.getCharacters(i)));
+    private static final Comparator<SourceReport> REPORT_ORDER = Comparator.comparing((SourceReport r) -> r.name).thenComparingInt(r -> r.lineCount);
+
+    /**
+     * @return a report for each {@link SourceKey source identity}, sorted by name. The report of a
+     *         key combines its current coverage with the retained summary of earlier loads.
+     */
+    private List<SourceReport> pendingReports(boolean columns) throws IOException {
+        final Map<SourceKey, CoverageSummary> summaries = new HashMap<>();
+        for (CoverageSummary summary : getAllSummaries()) {
+            summaries.put(summary.getKey(), summary);
+        }
+        final Map<Coverage, Source> liveSources = new IdentityHashMap<>();
+        for (Map.Entry<SourceRef, Coverage> entry : loadedSources.entrySet()) {
+            final Source source = entry.getKey().get();
+            if (source != null) {
+                liveSources.putIfAbsent(entry.getValue(), source);
+            }
         }
+        final List<SourceReport> reports = new ArrayList<>(coverageMap.size() + summaries.size());
+        for (Coverage coverage : coverageMap.values()) {
+            reports.add(new SourceReport(liveSources.get(coverage), coverage, summaries.remove(coverage.getKey()), columns));
+        }
+        for (CoverageSummary summary : summaries.values()) {
+            reports.add(new SourceReport(summary));
+        }
+        reports.sort(REPORT_ORDER);
+        return reports;
     }
 
-    private static char getCoverageCharacter(Set<Integer> nonCoveredLineNumbers, Set<Integer> loadedLineNumbers, int i) {
-        if (loadedLineNumbers.contains(i)) {
-            return nonCoveredLineNumbers.contains(i) ? '-' : '+';
-        } else {
-            return ' ';
+    /**
+     * {@link SourceReport#compute() Computes} the reports on a {@link ForkJoinPool}. The reports are
+     * returned in the order they were given in.
+     *
+     * @param deadline the {@link System#nanoTime()} by which the reports must be computed, or
+     *            {@code 0} for no limit. Reports that are not ready by then are left out, along
+     *            with all that follow them.
+     */
+    private static List<SourceReport> computeReports(List<SourceReport> pending, long deadline) {
+        final ForkJoinPool pool = new ForkJoinPool();
+        try {
+            final List<ForkJoinTask<SourceReport>> tasks = new ArrayList<>(pending.size());
+            for (SourceReport report : pending) {
+                tasks.add(pool.submit(report::compute));
+            }
+            final List<SourceReport> reports = new ArrayList<>(pending.size());
+            for (ForkJoinTask<SourceReport> task : tasks) {
+                if (deadline == 0) {
+                    reports.add(task.join());
+                } else {
+                    try {
+                        reports.add(task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                    } catch (TimeoutException e) {
+                        break;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            }
+            return reports;
+        } finally {
+            pool.shutdownNow();
         }
     }
 
+    /**
+     * Writes a {@link CoverageSnapshot snapshot} of all sources. Snapshots are not limited by the
+     * {@link #REPORT_TIME_LIMIT report time limit}, as they do not compute any line level results.
+     */
+    private void printSnapshot(final Env env, final String outputFile) {
+        try {
+            final Collection<Coverage> coverages = new ArrayList<>(coverageMap.values());
+            final List<CoverageSummary> summaries = new ArrayList<>(getCoverageSummaries());
+            if (baseline != null) {
+                // Keep the sections of baseline sources we did not load, so that the snapshot
+                // can serve as the baseline of the next run.
+                for (SnapshotSource source : baseline.values()) {
+                    if (source.coverage != null) {
+                        coverages.add(source.coverage);
+                    }
+                    if (source.lines != null) {
+                        summaries.add(source.lines);
+                    }
+                }
+            }
+            if (outputFile.isEmpty()) {
+                final WritableByteChannel channel = Channels.newChannel(env.out());
+                CoverageSnapshot.write(channel, coverages, summaries, counting);
+                env.out().flush();
+            } else {
+                try (FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    CoverageSnapshot.write(channel, coverages, summaries, counting);
+                }
+            }
+        } catch (IOException e) {
+            new PrintStream(env.err(), true).println("[" + ID + "] Failed to write coverage snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param hotSections the {@link #HOT_SECTIONS hot sections} to report after the sources, or
+     *            {@code null}
+     * @return the number of sources written
+     */
+    static int writeReport(WritableByteChannel channel, Format format, List<SourceReport> reports, List<HotSections.HotSection> hotSections) throws IOException {
+        int loadedLines = 0;
+        int coveredLines = 0;
+        for (SourceReport report : reports) {
+            loadedLines += report.loadedLineCount;
+            coveredLines += report.coveredLineCount;
+        }
+        final Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), 1 << 16);
+        final CoverageReportWriter reportWriter = CoverageReportWriter.create(format, writer);
+        reportWriter.begin(loadedLines, coveredLines);
+        for (SourceReport report : reports) {
+            reportWriter.writeSource(report);
+        }
+        if (hotSections != null) {
+            reportWriter.writeHotSections(hotSections);
+        }
+        reportWriter.end();
+        // Flush, but do not close, as that would close the output stream of the environment.
+        writer.flush();
+        return reports.size();
+    }
+
     /**
      * @param source
      * @return A sorted list of line numbers for not-yet-covered lines of source code in the given
      *         {@link Source}
      */
-    public synchronized Set<Integer> nonCoveredLineNumbers(final Source source) {
-        return coverageMap.get(source).nonCoveredLineNumbers();
+    public Set<Integer> nonCoveredLineNumbers(final Source source) {
+        return getLoadedCoverage(source).nonCoveredLineNumbers();
+    }
+
+    /**
+     * Same as {@link #nonCoveredLineNumbers(Source)}, but without boxing each line number.
+     *
+     * @param source
+     * @return the line numbers of not-yet-covered lines of source code in the given {@link Source}
+     */
+    public BitSet nonCoveredLines(final Source source) {
+        return getLoadedCoverage(source).nonCoveredLines();
+    }
+
+    /**
+     * Only available if the instrument runs in {@link Mode#COUNTS counts} {@link #MODE mode}.
+     *
+     * @param source
+     * @return the execution count of each line of the given {@link Source} indexed by line number,
+     *         or {@code null} if the instrument is not counting.
+     */
+    public long[] lineCounts(final Source source) {
+        return getLoadedCoverage(source).lineCounts();
     }
 
     /**
@@ -247,29 +1315,271 @@ public final class SimpleCoverageInstrument extends TruffleInstrument {
     }
 
     /**
-     * Called when a new {@link SourceSection} is loaded. We can update our {@link #coverageMap}.
-     * 
-     * @param sourceSection the newly loaded {@link SourceSection}
+     * @return the binding of the source at the granularity, created if this is the first time we
+     *         see it, or {@code null} unless covered instrumentation is {@link #REMOVE_COVERED
+     *         removed}.
+     */
+    SourceBinding getSourceBinding(Source source, Coverage coverage, Granularity granularity) {
+        if (!removeCovered) {
+            return null;
+        }
+        return sourceBindings.get(granularity).computeIfAbsent(source, s -> new SourceBinding(this, instrumenter, filters.get(granularity), s, coverage, granularity));
+    }
+
+    /**
+     * @return the {@link ContextLocal} of the {@link ContextCoverage}s, or {@code null} if we do
+     *         not record coverage {@link #PER_CONTEXT per context}.
      */
-    synchronized void addLoaded(SourceSection sourceSection) {
-        final Coverage coverage = coverageMap.computeIfAbsent(sourceSection.getSource(), new Function<Source, Coverage>() {
-            @Override
-            public Coverage apply(Source s) {
-                return new Coverage();
+    ContextLocal<ContextCoverage> getContextCoverageLocal() {
+        return perContext ? contextCoverage : null;
+    }
+
+    /**
+     * @param source a loaded {@link Source}
+     * @return the {@link Coverage} of the source
+     */
+    Coverage getLoadedCoverage(Source source) {
+        return loadedSources.get(new SourceRef(source));
+    }
+
+    /**
+     * @param source a loaded {@link Source}
+     * @return the {@link Coverage} of the source, created if this is the first time we see it.
+     *         Released sources are only expunged when a source is seen for the first time, not on
+     *         every lookup.
+     */
+    Coverage getCoverage(Source source) {
+        final Coverage coverage = loadedSources.get(new SourceRef(source));
+        if (coverage != null) {
+            return coverage;
+        }
+        expungeReleasedSources();
+        return loadedSources.computeIfAbsent(new SourceRef(source, releasedSources, !retainSummaries), ref -> {
+            final int lineCount = source.hasCharacters() ? source.getLineCount() : 0;
+            return coverageMap.compute(SourceKey.of(source), (key, existing) -> {
+                if (existing != null) {
+                    existing.liveSources++;
+                    return existing;
+                }
+                final Coverage created = new Coverage(key, coverageCount.getAndIncrement(), lineCount, counting);
+                if (coverageFile != null) {
+                    created.mapTo(coverageFile.addSource(key, created.index, lineCount));
+                }
+                if (baseline != null) {
+                    seed(created);
+                }
+                created.liveSources++;
+                return created;
+            });
+        });
+    }
+
+    /**
+     * Reads the {@link #BASELINE baseline}, the coverage of an earlier run, e.g. the last green CI
+     * run of a test suite. Sources are matched by {@link SourceKey key}, i.e. by path and content
+     * hash, so a source that changed since is recorded from scratch.
+     *
+     * The sections of a matching source are added to its {@link Coverage} when the source is
+     * loaded, before any of its code is instrumented. Since the instrumentation of each source is
+     * then {@link SourceBinding bound} like when covered instrumentation is
+     * {@link #REMOVE_COVERED removed}, sections the baseline covered never get a wrapper, nor cause
+     * a deoptimization when they are first executed. Only new and not yet covered code pays for
+     * the instrument. This is not possible if we count executions or record coverage
+     * {@link #PER_CONTEXT per context}, as that needs every section instrumented, in which case the
+     * baseline only adds to the results.
+     *
+     * Reports, and snapshots, include the baseline, also for sources that are not loaded by this
+     * run.
+     */
+    private void loadBaseline(Env env, String path) {
+        try {
+            baseline = new ConcurrentHashMap<>(SnapshotMerger.mergeSources(Collections.singletonList(Paths.get(path))));
+        } catch (IOException e) {
+            new PrintStream(env.err(), true).println("[" + ID + "] Failed to read baseline " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the baseline sections of the source of a new coverage, if there are any.
+     */
+    private void seed(Coverage coverage) {
+        baseline.computeIfPresent(coverage.getKey(), (key, source) -> {
+            if (source.coverage != null) {
+                coverage.addAll(source.coverage);
+                source.coverage = null;
             }
+            return source.lines == null ? null : source;
         });
-        coverage.addLoaded(sourceSection);
     }
 
     /**
-     * Called after a {@link SourceSection} is executed, and thus covered. We can update our
-     * {@link #coverageMap}.
-     * 
-     * @param sourceSection the executed {@link SourceSection}
+     * @return the {@link #getCoverageSummaries() summaries} of sources that are no longer loaded
+     *         and of the {@link #BASELINE baseline} sources we did not load, at most one for each
+     *         key.
+     */
+    private Collection<CoverageSummary> getAllSummaries() throws IOException {
+        final List<CoverageSummary> retiredSummaries = getCoverageSummaries();
+        if (baseline == null) {
+            return retiredSummaries;
+        }
+        final Map<SourceKey, CoverageSummary> summaries = new HashMap<>();
+        for (CoverageSummary summary : retiredSummaries) {
+            summaries.put(summary.getKey(), summary);
+        }
+        for (SnapshotSource source : baseline.values()) {
+            final CoverageSummary summary = source.summarize(counting);
+            if (summary != null) {
+                summaries.merge(summary.getKey(), summary, CoverageSummary::merge);
+            }
+        }
+        return summaries.values();
+    }
+
+    /**
+     * Forgets each source that was garbage collected. Once no loaded source has the key of a
+     * {@link Coverage} any more, the coverage is replaced by a {@link CoverageSummary}. Sources can
+     * only be collected if we {@link #RETENTION retain} summaries, otherwise their
+     * {@link SourceRef} holds them strongly.
+     *
+     * The coverage is only removed from the map within the map operation. It is summarized, which
+     * may spill summaries to disk, after the map no longer holds the lock of its bin.
      */
-    synchronized void addCovered(SourceSection sourceSection) {
-        final Coverage coverage = coverageMap.get(sourceSection.getSource());
-        coverage.addCovered(sourceSection);
+    private void expungeReleasedSources() {
+        SourceRef ref;
+        while ((ref = (SourceRef) releasedSources.poll()) != null) {
+            final Coverage coverage = loadedSources.remove(ref);
+            if (coverage == null) {
+                continue;
+            }
+            final boolean[] released = {false};
+            coverageMap.computeIfPresent(coverage.getKey(), (key, current) -> {
+                if (current != coverage || --current.liveSources > 0) {
+                    return current;
+                }
+                released[0] = true;
+                return null;
+            });
+            if (released[0]) {
+                retired.add(coverage.summarize());
+                if (exporter != null) {
+                    exporter.retire(coverage);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps track of the {@link ContextCoverage} of each open context.
+     */
+    private final class ContextCoverageListener implements ContextsListener {
+
+        @Override
+        public void onContextCreated(TruffleContext context) {
+            contextCoverages.put(context, contextCoverage.get(context));
+        }
+
+        @Override
+        public void onContextClosed(TruffleContext context) {
+            contextCoverages.remove(context);
+        }
+
+        @Override
+        public void onLanguageContextCreated(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextInitialized(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextFinalized(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextDisposed(TruffleContext context, LanguageInfo language) {
+        }
+    }
+
+    /**
+     * Retires the {@link HotSections.Sketch}es of threads and contexts as they are disposed.
+     */
+    private final class HotSketchListener implements ThreadsListener, ContextsListener {
+
+        @Override
+        public void onThreadInitialized(TruffleContext context, Thread thread) {
+        }
+
+        @Override
+        public void onThreadDisposed(TruffleContext context, Thread thread) {
+            hotSections.retire(context, thread);
+        }
+
+        @Override
+        public void onContextCreated(TruffleContext context) {
+        }
+
+        @Override
+        public void onContextClosed(TruffleContext context) {
+            hotSections.retire(context, null);
+        }
+
+        @Override
+        public void onLanguageContextCreated(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextInitialized(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextFinalized(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextDisposed(TruffleContext context, LanguageInfo language) {
+        }
+    }
+
+    /**
+     * A key of the {@link #loadedSources}. The {@link Source} is held weakly, and additionally
+     * {@link #strong strongly} unless we {@link #RETENTION retain} summaries. Keys compare equal if
+     * they are the same key or their sources are equal, and keep the hash code of their source so
+     * that cleared keys can still be removed.
+     */
+    static final class SourceRef extends WeakReference<Source> {
+
+        private final int hash;
+        @SuppressWarnings("unused") private final Source strong;
+
+        /**
+         * Creates a key used only for lookups.
+         */
+        SourceRef(Source source) {
+            this(source, null, false);
+        }
+
+        SourceRef(Source source, ReferenceQueue<Source> queue, boolean strong) {
+            super(source, queue);
+            this.hash = source.hashCode();
+            this.strong = strong ? source : null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SourceRef)) {
+                return false;
+            }
+            final Source source = get();
+            return source != null && source.equals(((SourceRef) obj).get());
+        }
     }
 
 }
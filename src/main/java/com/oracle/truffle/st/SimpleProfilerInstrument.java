@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.graalvm.options.OptionCategory;
+import org.graalvm.options.OptionDescriptors;
+import org.graalvm.options.OptionKey;
+import org.graalvm.options.OptionStability;
+import org.graalvm.options.OptionValues;
+
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.Option;
+import com.oracle.truffle.api.TruffleContext;
+import com.oracle.truffle.api.instrumentation.ContextsListener;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags.RootTag;
+import com.oracle.truffle.api.instrumentation.ThreadsListener;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Registration;
+import com.oracle.truffle.api.nodes.LanguageInfo;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+/**
+ * Example of a simple function profiler, a sibling of the {@link SimpleCoverageInstrument}. It
+ * uses the same pattern: an {@link com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory
+ * event node factory} is attached to the code of interest, here the {@link RootTag roots} of guest
+ * functions, and the {@link ProfilerNode}s it creates record what we want to know.
+ *
+ * For each function the profiler records the number of calls and a {@link LatencyHistogram
+ * histogram} of their wall time. Each thread records into its own {@link ThreadProfile} without
+ * any locks, and the profiles of all threads are merged when they are read, either through the
+ * {@link #getProfiles() service} or when the p50 and p99 of each function are printed at exit. When
+ * a thread or its context is disposed, its profile is folded into {@link #retired retired}
+ * histograms, so that an application that starts many short-lived threads or contexts does not
+ * keep a profile for each of them. This
+ * is cheap enough to find slow guest functions in production, without attaching a sampler, but
+ * every call still crosses two boundaries, so very small functions that are called often cost
+ * noticeably more than without the profiler.
+ *
+ * Like the coverage instrument, the profiler is registered with a {@link Registration} annotation
+ * and exports itself as a service.
+ */
+@Registration(id = SimpleProfilerInstrument.ID, name = "Simple Profiler", version = "0.1", services = SimpleProfilerInstrument.class)
+public final class SimpleProfilerInstrument extends TruffleInstrument {
+
+    // @formatter:off
+    /**
+     * Look at {@link #onCreate(Env)} for more info.
+     */
+    @Option(name = "", help = "Enable Simple Profiler (default: false).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Boolean> ENABLED = new OptionKey<>(false);
+
+    /**
+     * Look at {@link #printProfiles(Env)} for more info.
+     */
+    @Option(name = "PrintProfile", help = "Print the profile of each function to stdout on process exit (default: true).", category = OptionCategory.USER, stability = OptionStability.STABLE)
+    static final OptionKey<Boolean> PRINT_PROFILE = new OptionKey<>(true);
+    // @formatter:on
+
+    public static final String ID = "simple-profiler";
+
+    /**
+     * The profiles of all threads that run guest code, in all open contexts. A profile is removed
+     * once its thread or context is disposed, after its calls were added to the {@link #retired}
+     * histograms.
+     */
+    private final Queue<ThreadProfile> threadProfiles = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The merged histograms of the profiles of disposed threads, by
+     * {@link Function#id function id}. Guarded by {@link #retiredLock}, which is also held while
+     * the profiles are merged, so that a profile is counted exactly once while it is retired.
+     */
+    private long[][] retired = new long[0][];
+    private final Object retiredLock = new Object();
+
+    /**
+     * Context thread locals must be created when the instrument is constructed, before we know
+     * whether it is enabled.
+     */
+    private final ContextThreadLocal<ThreadProfile> threadProfile = locals.createContextThreadLocal((context, thread) -> {
+        final ThreadProfile profile = new ThreadProfile(context, thread);
+        threadProfiles.add(profile);
+        return profile;
+    });
+
+    /**
+     * Each profiled function, by source and position. A function may have several roots, e.g.
+     * when the language splits it, which all record into the same histograms.
+     */
+    private final Map<String, Function> functions = new ConcurrentHashMap<>();
+    private final AtomicInteger functionCount = new AtomicInteger();
+
+    private boolean enabled;
+
+    /**
+     * Attaches the {@link ProfilerNode}s to the roots of all non-internal sources and registers
+     * the instrument as a service.
+     */
+    @Override
+    protected void onCreate(final Env env) {
+        final OptionValues options = env.getOptions();
+        if (ENABLED.getValue(options)) {
+            enabled = true;
+            final SourceSectionFilter filter = SourceSectionFilter.newBuilder().tagIs(RootTag.class).includeInternal(false).build();
+            final Instrumenter instrumenter = env.getInstrumenter();
+            instrumenter.attachExecutionEventFactory(filter, ec -> new ProfilerNode(threadProfile, getFunction(ec).id));
+            final RetiringListener retiringListener = new RetiringListener();
+            instrumenter.attachThreadsListener(retiringListener, false);
+            instrumenter.attachContextsListener(retiringListener, false);
+            env.registerService(this);
+        }
+    }
+
+    @Override
+    protected void onFinalize(Env env) {
+        if (enabled && PRINT_PROFILE.getValue(env.getOptions())) {
+            printProfiles(env);
+        }
+    }
+
+    @Override
+    protected OptionDescriptors getOptionDescriptors() {
+        return new SimpleProfilerInstrumentOptionDescriptors();
+    }
+
+    private Function getFunction(EventContext ec) {
+        final SourceSection section = ec.getInstrumentedSourceSection();
+        final Source source = section.getSource();
+        final String sourceName = source.getPath() != null ? source.getPath() : source.getName();
+        final String name = ec.getInstrumentedNode().getRootNode().getName();
+        final int line = section.isAvailable() ? section.getStartLine() : 0;
+        return functions.computeIfAbsent(sourceName + ':' + section.getCharIndex() + ':' + name, key -> new Function(functionCount.getAndIncrement(), name, sourceName, line));
+    }
+
+    /**
+     * Folds the profiles of a disposed thread, or of all threads of a disposed context if the
+     * thread is {@code null}, into the {@link #retired} histograms.
+     */
+    private void retire(TruffleContext context, Thread thread) {
+        synchronized (retiredLock) {
+            for (Iterator<ThreadProfile> iterator = threadProfiles.iterator(); iterator.hasNext();) {
+                final ThreadProfile profile = iterator.next();
+                if (profile.context == context && (thread == null || profile.thread == thread)) {
+                    retired = profile.addAllTo(retired);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the profiles of all threads. Calls that are running while we read are not included,
+     * and calls that end while we read may be included in some of the numbers but not in others.
+     *
+     * @return the profile of each function that was called, by total time, the slowest first.
+     */
+    public List<FunctionProfile> getProfiles() {
+        final List<FunctionProfile> profiles = new ArrayList<>();
+        for (Function function : functions.values()) {
+            final long[] merged = new long[LatencyHistogram.LENGTH];
+            synchronized (retiredLock) {
+                if (function.id < retired.length && retired[function.id] != null) {
+                    LatencyHistogram.add(retired[function.id], merged);
+                }
+                for (ThreadProfile profile : threadProfiles) {
+                    profile.addTo(function.id, merged);
+                }
+            }
+            final FunctionProfile functionProfile = new FunctionProfile(function.name, function.sourceName, function.line, merged);
+            if (functionProfile.getCalls() > 0) {
+                profiles.add(functionProfile);
+            }
+        }
+        profiles.sort(Comparator.comparingLong(FunctionProfile::getTotalNanos).reversed());
+        return profiles;
+    }
+
+    /**
+     * Prints a line for each function that was called, the slowest first, with times in
+     * microseconds.
+     */
+    private void printProfiles(Env env) {
+        final List<FunctionProfile> profiles = getProfiles();
+        final PrintStream out = new PrintStream(env.out(), true);
+        out.println("==");
+        out.println("Profile of " + profiles.size() + " functions, by total time:");
+        out.println(String.format("%12s %14s %12s %12s %12s  %s", "Calls", "Total us", "p50 us", "p99 us", "Max us", "Function"));
+        for (FunctionProfile profile : profiles) {
+            final String name = profile.getName() == null || profile.getName().isEmpty() ? "(anonymous)" : profile.getName();
+            out.println(String.format("%12d %14.1f %12.1f %12.1f %12.1f  %s (%s:%d)", profile.getCalls(), micros(profile.getTotalNanos()), micros(profile.getNanosAtPercentile(50)),
+                            micros(profile.getNanosAtPercentile(99)), micros(profile.getMaxNanos()), name, profile.getSourceName(), profile.getLine()));
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * Retires the profiles of threads and contexts as they are disposed.
+     */
+    private final class RetiringListener implements ThreadsListener, ContextsListener {
+
+        @Override
+        public void onThreadInitialized(TruffleContext context, Thread thread) {
+        }
+
+        @Override
+        public void onThreadDisposed(TruffleContext context, Thread thread) {
+            retire(context, thread);
+        }
+
+        @Override
+        public void onContextCreated(TruffleContext context) {
+        }
+
+        @Override
+        public void onContextClosed(TruffleContext context) {
+            retire(context, null);
+        }
+
+        @Override
+        public void onLanguageContextCreated(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextInitialized(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextFinalized(TruffleContext context, LanguageInfo language) {
+        }
+
+        @Override
+        public void onLanguageContextDisposed(TruffleContext context, LanguageInfo language) {
+        }
+    }
+
+    /**
+     * A profiled function. Its {@link #id} indexes the histograms of each {@link ThreadProfile}.
+     */
+    static final class Function {
+
+        final int id;
+        final String name;
+        final String sourceName;
+        final int line;
+
+        Function(int id, String name, String sourceName, int line) {
+            this.id = id;
+            this.name = name;
+            this.sourceName = sourceName;
+            this.line = line;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * Periodically exports the coverage of a process that may never exit cleanly, when the instrument
+ * has an {@link SimpleCoverageInstrument#EXPORT_DIRECTORY export directory}.
+ *
+ * Every {@link SimpleCoverageInstrument#EXPORT_INTERVAL interval}, or sooner if an export is
+ * {@link #request() requested}, a system thread writes a {@link CoverageSnapshot snapshot} of only
+ * the sections that were loaded or covered since the previous export. Sources that did not change
+ * are skipped without looking at their sections, so the cost of an export depends on what changed,
+ * not on how much code was ever loaded. The guest threads only set a flag on the {@link Coverage}
+ * of a newly loaded or covered section.
+ *
+ * Each export is written to a new file, named after the start time and id of the process and a
+ * sequence number, and moved into place once complete. The {@link SnapshotMerger} merges a whole
+ * directory of such files into the coverage of everything exported so far.
+ */
+final class SnapshotExporter {
+
+    private final Collection<Coverage> coverages;
+    private final Path directory;
+    private final String prefix;
+    private final long interval;
+    private final PrintStream err;
+    private final Thread thread;
+
+    /**
+     * What was exported of each coverage. Only used by the exporting thread.
+     */
+    private final Map<Coverage, Exported> exported = new IdentityHashMap<>();
+
+    /**
+     * Coverages that are no longer in {@link #coverages}, whose last changes are still to be
+     * exported.
+     */
+    private final ConcurrentLinkedQueue<Coverage> retired = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the coverage was reset since the previous export, which forgets what was
+     * {@link Exported#covered exported as covered}.
+     */
+    private final AtomicBoolean resetRequested = new AtomicBoolean();
+
+    /**
+     * Requested exports, completed by the next export. Guarded by {@code this}.
+     */
+    private List<CompletableFuture<Path>> requests = new ArrayList<>();
+    private boolean closed;
+    private int sequence;
+
+    /**
+     * @param coverages a live view of the coverage of all loaded sources
+     */
+    SnapshotExporter(Env env, Collection<Coverage> coverages, Path directory, long interval) {
+        this.coverages = coverages;
+        this.directory = directory;
+        this.prefix = "coverage-" + System.currentTimeMillis() + "-" + ProcessHandle.current().pid() + "-";
+        this.interval = interval;
+        this.err = new PrintStream(env.err(), true);
+        this.thread = env.createSystemThread(this::run);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Asks the exporting thread to export now, instead of at the end of the current interval.
+     *
+     * @return the file that was written, or {@code null} if nothing changed since the previous
+     *         export.
+     */
+    synchronized CompletableFuture<Path> request() {
+        final CompletableFuture<Path> request = new CompletableFuture<>();
+        if (closed) {
+            request.completeExceptionally(new IllegalStateException("The exporter is closed."));
+        } else {
+            requests.add(request);
+            notifyAll();
+        }
+        return request;
+    }
+
+    /**
+     * Remembers a coverage that is removed from the live coverages, so that its changes since the
+     * previous export are not lost.
+     */
+    void retire(Coverage coverage) {
+        retired.add(coverage);
+    }
+
+    /**
+     * Forgets which sections were exported as covered, once the coverage was reset, so that the
+     * sections covered again are exported again. The exporting thread does this before its next
+     * export. Files that were already exported keep their coverage.
+     */
+    void reset() {
+        resetRequested.set(true);
+    }
+
+    /**
+     * Stops the exporting thread and exports the remaining changes on the calling thread.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exportAndComplete(takeRequests());
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                exportAndComplete(awaitRequests());
+            }
+        } catch (InterruptedException e) {
+            // The exporter is closed.
+        }
+    }
+
+    private synchronized List<CompletableFuture<Path>> awaitRequests() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+        long remaining = deadline - System.nanoTime();
+        while (requests.isEmpty() && remaining > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return takeRequests();
+    }
+
+    private synchronized List<CompletableFuture<Path>> takeRequests() {
+        final List<CompletableFuture<Path>> taken = requests;
+        requests = new ArrayList<>();
+        return taken;
+    }
+
+    private void exportAndComplete(List<CompletableFuture<Path>> completed) {
+        try {
+            final Path file = export();
+            for (CompletableFuture<Path> request : completed) {
+                request.complete(file);
+            }
+        } catch (IOException e) {
+            err.println("[" + SimpleCoverageInstrument.ID + "] Failed to export coverage: " + e.getMessage());
+            for (CompletableFuture<Path> request : completed) {
+                request.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Path export() throws IOException {
+        if (resetRequested.compareAndSet(true, false)) {
+            for (Exported state : exported.values()) {
+                state.covered.clear();
+            }
+        }
+        final List<Coverage> deltas = new ArrayList<>();
+        Coverage coverage;
+        while ((coverage = retired.poll()) != null) {
+            addDelta(coverage, deltas);
+            exported.remove(coverage);
+        }
+        for (Coverage live : coverages) {
+            addDelta(live, deltas);
+        }
+        if (deltas.isEmpty()) {
+            return null;
+        }
+        final Path file = directory.resolve(prefix + sequence++ + ".snap");
+        final Path partial = directory.resolve(file.getFileName() + ".partial");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CoverageSnapshot.write(channel, deltas, Collections.emptyList(), false);
+        }
+        return Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void addDelta(Coverage coverage, List<Coverage> deltas) {
+        if (!coverage.takeModified()) {
+            return;
+        }
+        final Exported state = exported.computeIfAbsent(coverage, c -> new Exported());
+        final Coverage delta = new Coverage(coverage.getKey(), 0, coverage.getLineCount(), false);
+        state.nextId = 0;
+        state.delta = delta;
+        coverage.forEachSection(state);
+        state.delta = null;
+        if (delta.loadedCount() > 0) {
+            deltas.add(delta);
+        }
+    }
+
+    /**
+     * The sections of a coverage that were exported, and whether they were covered. Section ids
+     * are dense and never reused, so sections with an id of at least {@link #sections} are new.
+     */
+    private static final class Exported implements Coverage.SectionConsumer {
+
+        private int sections;
+        private final BitSet covered = new BitSet();
+        private int nextId;
+        private Coverage delta;
+
+        @Override
+        public void accept(int charIndex, int charLength, int startLine, int endLine, Granularity granularity, String name, boolean isCovered, long count) {
+            final int id = nextId++;
+            if (id >= sections || (isCovered && !covered.get(id))) {
+                delta.add(charIndex, charLength, startLine, endLine, granularity, name, isCovered, 0);
+            }
+            if (isCovered) {
+                covered.set(id);
+            }
+            sections = Math.max(sections, nextId);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import com.oracle.truffle.st.CoverageSnapshot.SnapshotSource;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Format;
+
+/**
+ * Merges {@link CoverageSnapshot snapshots}, e.g. of the shards of a test suite that ran in
+ * separate processes, into a single snapshot or report.
+ *
+ * The shards are read in parallel. Each thread of the common fork join pool merges the shards it
+ * reads into sources of its own, and the sources of two threads are only merged once both are
+ * done, so threads never contend on a shared source. Shards are memory-mapped and decoded in
+ * place, so only the merged results are kept on the heap, however large the shards are.
+ *
+ * <pre>
+ * java -cp simpletool.jar:truffle-api.jar com.oracle.truffle.st.SnapshotMerger [--format=FORMAT] [--output=FILE] SHARD...
+ * </pre>
+ *
+ * A shard can also be a directory, in which case all regular files in it are merged. The format
+ * is one of the instrument's {@link Format formats} and defaults to a snapshot. The result is
+ * written to standard output if no file is given.
+ */
+public final class SnapshotMerger {
+
+    private final Map<SourceKey, SnapshotSource> sources = new HashMap<>();
+    private boolean counting;
+
+    private SnapshotMerger() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Format format = Format.SNAPSHOT;
+        String output = null;
+        final List<Path> shards = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--format=")) {
+                format = Format.fromString(arg.substring("--format=".length()));
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+            } else {
+                shards.add(Paths.get(arg));
+            }
+        }
+        if (shards.isEmpty()) {
+            System.err.println("Usage: SnapshotMerger [--format=snapshot|text|lcov|cobertura|json] [--output=FILE] SHARD...");
+            System.exit(1);
+        }
+        final SnapshotMerger merger = merge(shards);
+        if (output == null) {
+            merger.write(Channels.newChannel(System.out), format);
+            System.out.flush();
+        } else {
+            try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                merger.write(channel, format);
+            }
+        }
+    }
+
+    private static List<Path> files(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Collections.singletonList(path);
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    /**
+     * Merges the given snapshot files, or all files in the given directories.
+     *
+     * @return a summary of each source in any of the snapshots, sorted by name.
+     */
+    public static List<CoverageSummary> mergeSummaries(List<Path> shards) throws IOException {
+        final SnapshotMerger merger = merge(shards);
+        return CoverageSnapshot.summarize(merger.sources.values(), merger.counting);
+    }
+
+    /**
+     * Merges the given snapshot files, or all files in the given directories.
+     *
+     * @return the merged sources, by key.
+     */
+    static Map<SourceKey, SnapshotSource> mergeSources(List<Path> shards) throws IOException {
+        return merge(shards).sources;
+    }
+
+    private static SnapshotMerger merge(List<Path> shards) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (Path shard : shards) {
+            files.addAll(files(shard));
+        }
+        try {
+            return files.parallelStream().collect(SnapshotMerger::new, SnapshotMerger::read, SnapshotMerger::addAll);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void read(Path shard) {
+        try {
+            counting |= CoverageSnapshot.readInto(CoverageSnapshot.map(shard), sources);
+        } catch (IOException e) {
+            throw new UncheckedIOException(new IOException(shard + ": " + e.getMessage(), e));
+        }
+    }
+
+    private void addAll(SnapshotMerger other) {
+        for (Map.Entry<SourceKey, SnapshotSource> entry : other.sources.entrySet()) {
+            final SnapshotSource source = sources.putIfAbsent(entry.getKey(), entry.getValue());
+            if (source != null) {
+                source.addAll(entry.getValue());
+            }
+        }
+        counting |= other.counting;
+    }
+
+    private void write(WritableByteChannel channel, Format format) throws IOException {
+        if (format == Format.SNAPSHOT) {
+            CoverageSnapshot.write(channel, sources.values(), counting);
+            return;
+        }
+        final List<SourceReport> reports = new ArrayList<>();
+        for (SnapshotSource source : CoverageSnapshot.sort(sources.values())) {
+            reports.add(new SourceReport(source.summarize(counting), source.coverage, counting).compute());
+        }
+        SimpleCoverageInstrument.writeReport(channel, format, reports, null);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter.IndexRange;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * The instrumentation of a single {@link Source}, used when the instrument is asked to
+ * {@link SimpleCoverageInstrument#REMOVE_COVERED remove covered instrumentation}.
+ *
+ * Instead of one {@link EventBinding} for all sources, each source gets its own binding whose
+ * filter excludes the {@link Coverage#removableRanges(Granularity) character ranges} of sections that are
+ * already covered. Truffle only keeps wrapper nodes for sections matched by some binding, so
+ * attaching a new binding with a larger exclusion and disposing the old one removes the wrappers
+ * of covered statements from the AST. Once every loaded section of the source is covered the
+ * binding is disposed altogether, and the code of the source compiles as if the instrument was not
+ * installed.
+ *
+ * Each rebind invalidates the compiled code of the source, so it is not done on every covered
+ * statement. Instead we rebind once half of the statements that were instrumented by the current
+ * binding have been covered, which bounds the number of rebinds by the logarithm of the number of
+ * statements.
+ *
+ * The {@link CoverageNode}s only count the sections they cover, without locking. Once enough are
+ * covered they {@link SimpleCoverageInstrument#scheduleRebind(SourceBinding) schedule} a rebind,
+ * which a system thread of the instrument {@link #rebindCovered() does} later, so that the guest
+ * thread executing the node neither waits for it nor attaches a binding from within the node.
+ *
+ * Code that is loaded later, for example a lazily parsed function, may lie inside an excluded
+ * range or belong to a source whose binding was disposed. The {@link GatherSourceSectionsListener}
+ * notifies us of such code {@link #onLoad(SourceSection) when it is loaded}, and we schedule a
+ * rebind so that it is instrumented, like when enough sections are covered. In JavaScript a lazily
+ * parsed function usually lies inside a covered statement, so rebinding on the loading thread would
+ * walk the ASTs of the whole source for every function that is parsed. Until the rebind is done,
+ * executions of the new code are not recorded. Only the first binding of a source, or the first one
+ * after the instrument was {@link #dispose() stopped}, is attached on the loading thread, as
+ * otherwise the code that is loaded first, e.g. the top level of a script, would not be recorded at
+ * all.
+ *
+ * A source loaded at several {@link Granularity granularities} has a binding for each, as e.g. a
+ * covered statement says nothing about whether the expressions in it are covered.
+ */
+final class SourceBinding {
+
+    private static final int[] NO_RANGES = new int[0];
+
+    private final SimpleCoverageInstrument instrument;
+    private final Instrumenter instrumenter;
+    private final SourceSectionFilter filter;
+    private final Source source;
+    final Coverage coverage;
+    private final Granularity granularity;
+
+    /**
+     * The binding and the ranges it excludes. Written with our monitor held, but read without it
+     * when a section is {@link #onLoad(SourceSection) loaded}.
+     */
+    private volatile EventBinding<CoverageEventFactory> binding;
+    private volatile int[] excluded = NO_RANGES;
+    /**
+     * Whether we were bound since we were created or {@link #dispose() disposed}, even if the
+     * binding was disposed since because all sections were covered.
+     */
+    private volatile boolean bound;
+    private volatile int instrumentedAtBind;
+    private final AtomicInteger coveredSinceBind = new AtomicInteger();
+    private final AtomicBoolean rebindScheduled = new AtomicBoolean();
+    /**
+     * Set when a section that the binding does not instrument was loaded.
+     */
+    private final AtomicBoolean loadedSinceBind = new AtomicBoolean();
+
+    SourceBinding(SimpleCoverageInstrument instrument, Instrumenter instrumenter, SourceSectionFilter filter, Source source, Coverage coverage, Granularity granularity) {
+        this.instrument = instrument;
+        this.instrumenter = instrumenter;
+        this.filter = filter;
+        this.source = source;
+        this.coverage = coverage;
+        this.granularity = granularity;
+    }
+
+    /**
+     * Called when a {@link SourceSection} of our source is loaded. Makes sure it is instrumented,
+     * by binding at once if we are not bound yet, and otherwise by scheduling a rebind if the
+     * binding does not instrument it.
+     */
+    void onLoad(SourceSection sourceSection) {
+        if (!bound) {
+            synchronized (this) {
+                if (!bound) {
+                    rebind();
+                    return;
+                }
+            }
+        }
+        if (binding == null || (sourceSection.isAvailable() && Coverage.overlaps(excluded, sourceSection.getCharIndex(), sourceSection.getCharEndIndex() + 1))) {
+            loadedSinceBind.set(true);
+            scheduleRebind();
+        }
+    }
+
+    /**
+     * Called by a {@link CoverageNode} of this binding the first time its section is covered.
+     */
+    void onCovered() {
+        if (coveredSinceBind.incrementAndGet() * 2 >= instrumentedAtBind) {
+            scheduleRebind();
+        }
+    }
+
+    private void scheduleRebind() {
+        if (rebindScheduled.compareAndSet(false, true)) {
+            instrument.scheduleRebind(this);
+        }
+    }
+
+    /**
+     * Called by the system thread of the instrument once enough sections were
+     * {@link #onCovered() covered}, or a section was {@link #onLoad(SourceSection) loaded} that
+     * the binding does not instrument.
+     */
+    synchronized void rebindCovered() {
+        rebindScheduled.set(false);
+        final boolean loaded = loadedSinceBind.getAndSet(false);
+        if (!bound || (binding == null && !loaded)) {
+            // Disposed since, e.g. because the instrument was stopped.
+            return;
+        }
+        rebind();
+    }
+
+    /**
+     * Replaces the binding with one that excludes the ranges of the sections covered so far, or
+     * leaves us unbound if all loaded sections are covered.
+     */
+    private void rebind() {
+        unbind();
+        bound = true;
+        final int loaded = coverage.loadedCount(granularity);
+        final int covered = coverage.coveredCount(granularity);
+        if (loaded > 0 && covered == loaded) {
+            return;
+        }
+        excluded = coverage.removableRanges(granularity);
+        final SourceSectionFilter.Builder builder = SourceSectionFilter.newBuilder().and(filter).sourceIs(source);
+        if (excluded.length > 0) {
+            final IndexRange[] ranges = new IndexRange[excluded.length / 2];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = IndexRange.between(excluded[i * 2], excluded[i * 2 + 1]);
+            }
+            builder.indexNotIn(ranges);
+        }
+        instrumentedAtBind = loaded - covered;
+        coveredSinceBind.set(0);
+        binding = instrumenter.attachExecutionEventFactory(builder.build(), new CoverageEventFactory(instrument, this, granularity));
+    }
+
+    /**
+     * Removes the instrumentation of our source, e.g. because the instrument is stopped, until a
+     * section is {@link #onLoad(SourceSection) loaded} again.
+     */
+    synchronized void dispose() {
+        unbind();
+        bound = false;
+        loadedSinceBind.set(false);
+    }
+
+    private void unbind() {
+        if (binding != null) {
+            binding.dispose();
+            binding = null;
+            excluded = NO_RANGES;
+        }
+    }
+}
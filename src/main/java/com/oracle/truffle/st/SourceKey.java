@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * The stable identity of a {@link Source}: its path (or name, if it has no path) and a hash of
+ * its characters.
+ *
+ * Two {@link Source} objects with the same key have the same content, and therefore the same
+ * {@link com.oracle.truffle.api.source.SourceSection sections}. The instrument keeps a single
+ * {@link Coverage} per key, so a file loaded by many contexts, or a string evaluated many times,
+ * is reported once with the aggregate coverage of all its loads.
+ */
+final class SourceKey {
+
+    final String name;
+    final long contentHash;
+
+    SourceKey(String name, long contentHash) {
+        this.name = name;
+        this.contentHash = contentHash;
+    }
+
+    static SourceKey of(Source source) {
+        final String name = source.getPath() != null ? source.getPath() : source.getName();
+        return new SourceKey(name, source.hasCharacters() ? contentHash(source.getCharacters()) : 0);
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the characters of a source.
+     */
+    static long contentHash(CharSequence characters) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < characters.length(); i++) {
+            hash = (hash ^ characters.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode() * 31 + Long.hashCode(contentHash);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SourceKey)) {
+            return false;
+        }
+        final SourceKey other = (SourceKey) obj;
+        return contentHash == other.contentHash && name.equals(other.name);
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + Long.toHexString(contentHash);
+    }
+}
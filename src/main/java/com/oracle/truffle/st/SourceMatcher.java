@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.oracle.truffle.api.source.Source;
+
+/**
+ * Decides which sources are covered, given the {@link SimpleCoverageInstrument#INCLUDE include} and
+ * {@link SimpleCoverageInstrument#EXCLUDE exclude} globs. A source is covered if it matches any
+ * include glob, or if there are none, and matches no exclude glob.
+ *
+ * A glob is matched against the path of a source, or its name if it has no path, with {@code /} as
+ * the separator. {@code *} matches any characters but {@code /}, {@code **} matches any
+ * characters, {@code ?} matches a single character but {@code /}. A glob without {@code /} only
+ * needs to match the last segment, so {@code *.min.js} matches minified scripts in any directory
+ * while {@code **}{@code /node_modules/**} matches everything installed by npm.
+ *
+ * The matcher is part of the {@link com.oracle.truffle.api.instrumentation.SourceFilter} of the
+ * instrument, so excluded sources never get wrappers nor load events.
+ */
+final class SourceMatcher implements Predicate<Source> {
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    private SourceMatcher(List<Pattern> includes, List<Pattern> excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param include comma separated globs, or an empty string to include all sources
+     * @param exclude comma separated globs, or an empty string to exclude no source
+     * @return the matcher, or {@code null} if it would match all sources.
+     */
+    static SourceMatcher create(String include, String exclude) {
+        final List<Pattern> includes = compile(include);
+        final List<Pattern> excludes = compile(exclude);
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return null;
+        }
+        return new SourceMatcher(includes, excludes);
+    }
+
+    @Override
+    public boolean test(Source source) {
+        final String path = source.getPath() != null ? source.getPath().replace('\\', '/') : source.getName();
+        return (includes.isEmpty() || matches(includes, path)) && !matches(excludes, path);
+    }
+
+    private static boolean matches(List<Pattern> patterns, String path) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a comma separated list, ignoring blanks.
+     */
+    static String[] split(String list) {
+        final List<String> values = new ArrayList<>();
+        for (String value : list.split(",")) {
+            if (!value.isBlank()) {
+                values.add(value.strip());
+            }
+        }
+        return values.toArray(new String[0]);
+    }
+
+    private static List<Pattern> compile(String globs) {
+        final List<Pattern> patterns = new ArrayList<>();
+        for (String glob : split(globs)) {
+            patterns.add(Pattern.compile(toRegex(glob.indexOf('/') < 0 ? "**/" + glob : glob)));
+        }
+        return patterns;
+    }
+
+    static String toRegex(String glob) {
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                i++;
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                    // "**/" also matches no directory at all.
+                    i++;
+                    regex.append("(?:.*/)?");
+                } else {
+                    regex.append(".*");
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * The line level results for one {@link Source}, computed from its {@link Coverage} (or from the
+ * {@link CoverageSummary} of a source that is no longer loaded) when a report is written. A
+ * {@link CoverageReportWriter} only sees these, so all formats report the same numbers.
+ *
+ * Creating a report is cheap, the results are only computed when {@link #compute()} is called.
+ * This lets us sort the reports by name before computing them in parallel.
+ *
+ * Besides lines, a report counts the loaded and covered sections of each {@link Granularity} and
+ * lists the functions of {@link Granularity#ROOT root} sections, if it was created with the
+ * sections of the source. A {@link CoverageSummary} does not keep sections, so a report of a source
+ * that is no longer loaded only has line results.
+ */
+final class SourceReport {
+
+    /**
+     * The source, or {@code null} if it is no longer loaded. Only needed to print its text.
+     */
+    final Source source;
+    /**
+     * The path of the source, or its name if it does not have one (e.g. for evaluated strings).
+     */
+    final String name;
+    final int lineCount;
+    private final Coverage coverage;
+    /**
+     * The summary of a source that is no longer loaded, or of earlier loads of a source that is.
+     */
+    private final CoverageSummary summary;
+    /**
+     * The sections of the source, or {@code null} if only line results are reported.
+     */
+    private final Coverage sections;
+    private final boolean counting;
+    private final boolean columns;
+
+    BitSet loadedLines;
+    BitSet nonCoveredLines;
+    /**
+     * Execution count of each line, or {@code null} if the instrument is not counting.
+     */
+    long[] lineCounts;
+    int loadedLineCount;
+    int coveredLineCount;
+    /**
+     * The number of loaded and covered sections of each granularity, indexed by
+     * {@link Granularity#ordinal()}, or {@code null} if only line results are reported.
+     */
+    int[] loadedSections;
+    int[] coveredSections;
+    /**
+     * The functions of the source in the order they were loaded, empty unless root sections were
+     * recorded.
+     */
+    final List<Function> functions = new ArrayList<>();
+    /**
+     * The sorted {@code [start, end)} pairs of not covered character indices, or {@code null} if
+     * {@link SimpleCoverageInstrument#COLUMNS columns} are not reported or the source is no longer
+     * loaded.
+     */
+    int[] nonCoveredRanges;
+
+    SourceReport(Source source, Coverage coverage, CoverageSummary summary, boolean columns) {
+        this.source = source;
+        this.name = coverage.getName();
+        this.lineCount = coverage.getLineCount();
+        this.coverage = coverage;
+        this.summary = summary;
+        this.sections = coverage;
+        this.counting = coverage.isCounting();
+        this.columns = columns && source != null;
+    }
+
+    SourceReport(CoverageSummary summary) {
+        this(summary, null, false);
+    }
+
+    /**
+     * Creates a report of lines that were already summarized, e.g. by {@link SnapshotMerger merging}
+     * snapshots, and of the sections they were summarized from.
+     *
+     * @param sections the sections of the source, or {@code null}
+     * @param counting whether the sections have meaningful execution counts
+     */
+    SourceReport(CoverageSummary summary, Coverage sections, boolean counting) {
+        this.source = null;
+        this.name = summary.getName();
+        this.lineCount = summary.getLineCount();
+        this.coverage = null;
+        this.summary = summary;
+        this.sections = sections;
+        this.counting = counting;
+        this.columns = false;
+    }
+
+    SourceReport compute() {
+        CoverageSummary results = summary;
+        if (coverage != null) {
+            results = summary == null ? coverage.summarize() : coverage.summarize().merge(summary);
+        }
+        loadedLines = results.loadedLines;
+        nonCoveredLines = results.nonCoveredLines;
+        lineCounts = results.lineCounts;
+        loadedLineCount = loadedLines.cardinality();
+        coveredLineCount = loadedLineCount - nonCoveredLines.cardinality();
+        if (columns) {
+            nonCoveredRanges = coverage.nonCoveredRanges();
+        }
+        if (sections != null) {
+            loadedSections = new int[Granularity.VALUES.length];
+            coveredSections = new int[Granularity.VALUES.length];
+            sections.forEachSection((charIndex, charLength, startLine, endLine, granularity, functionName, isCovered, count) -> {
+                loadedSections[granularity.ordinal()]++;
+                if (isCovered) {
+                    coveredSections[granularity.ordinal()]++;
+                }
+                if (granularity == Granularity.ROOT) {
+                    functions.add(new Function(functionName, startLine, isCovered, counting ? count : (isCovered ? 1 : 0)));
+                }
+            });
+        }
+        return this;
+    }
+
+    /**
+     * @return whether sections of another granularity than the default
+     *         {@link Granularity#STATEMENT statements} were recorded. Formats only report
+     *         granularities if so, to keep the default reports as they were.
+     */
+    boolean hasGranularities() {
+        return loadedSections != null && (loadedSections[Granularity.ROOT.ordinal()] > 0 || loadedSections[Granularity.EXPRESSION.ordinal()] > 0);
+    }
+
+    int loadedSections(Granularity granularity) {
+        return loadedSections == null ? 0 : loadedSections[granularity.ordinal()];
+    }
+
+    int coveredSections(Granularity granularity) {
+        return coveredSections == null ? 0 : coveredSections[granularity.ordinal()];
+    }
+
+    boolean isLoaded(int line) {
+        return loadedLines.get(line);
+    }
+
+    boolean isCovered(int line) {
+        return loadedLines.get(line) && !nonCoveredLines.get(line);
+    }
+
+    /**
+     * Finds the not covered character ranges on a line with a binary search, so that reporting the
+     * columns of each line of a large source stays linear in its size. This is what makes the
+     * report of minified code, where a whole program is on one line, useful.
+     *
+     * @return the {@code [start, end)} pairs of not covered columns of the line, starting at
+     *         {@code 1}, or {@code null} if columns are not reported.
+     */
+    int[] nonCoveredColumns(int line) {
+        if (nonCoveredRanges == null) {
+            return null;
+        }
+        final int lineStart = source.getLineStartOffset(line);
+        final int lineEnd = lineStart + source.getLineLength(line);
+        int low = 0;
+        int high = nonCoveredRanges.length / 2;
+        // Find the first range that ends after the start of the line.
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (nonCoveredRanges[mid * 2 + 1] <= lineStart) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < nonCoveredRanges.length / 2 && nonCoveredRanges[end * 2] < lineEnd) {
+            end++;
+        }
+        final int[] result = new int[(end - low) * 2];
+        for (int i = low; i < end; i++) {
+            result[(i - low) * 2] = Math.max(nonCoveredRanges[i * 2], lineStart) - lineStart + 1;
+            result[(i - low) * 2 + 1] = Math.min(nonCoveredRanges[i * 2 + 1], lineEnd) - lineStart + 1;
+        }
+        return result;
+    }
+
+    /**
+     * A line with a section that was never executed is not covered, even if other sections on it
+     * were executed, so its count is {@code 0} as well, and a covered line counts at least once,
+     * e.g. if it was covered by a snapshot without counts. Reports thus agree with their totals of
+     * covered lines.
+     *
+     * @return the execution count of covered lines if the instrument is counting, otherwise
+     *         {@code 1}, and {@code 0} for not covered lines.
+     */
+    long hits(int line) {
+        if (!isCovered(line)) {
+            return 0;
+        }
+        if (lineCounts != null && line < lineCounts.length) {
+            return Math.max(1, lineCounts[line]);
+        }
+        return 1;
+    }
+
+    /**
+     * A function of the source, i.e. a {@link Granularity#ROOT root} section.
+     */
+    static final class Function {
+
+        /**
+         * The name of the root node, or an empty string if it has none.
+         */
+        final String name;
+        final int line;
+        final boolean covered;
+        /**
+         * The number of calls if the instrument is counting, otherwise {@code 1} if the function
+         * was called and {@code 0} if it was not.
+         */
+        final long hits;
+
+        Function(String name, int line, boolean covered, long hits) {
+            this.name = name == null ? "" : name;
+            this.line = line;
+            this.covered = covered;
+            this.hits = hits;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * Records which tests cover which sections, for test impact analysis, when the instrument records
+ * {@link SimpleCoverageInstrument#TEST_EPOCHS test epochs}. All tests run in one context, and a
+ * test runner marks the boundaries between them with {@link #beginTest(String)} and
+ * {@link #endTest()}.
+ *
+ * The time between two boundaries is an epoch. Each epoch has an {@link Assumption} that is valid
+ * while it lasts. A {@link CoverageNode} {@link #record(Coverage, int) records} its section in the
+ * current epoch the first time it is executed in it, and then keeps the assumption of that epoch
+ * as a {@link com.oracle.truffle.api.CompilerDirectives.CompilationFinal compilation final} value.
+ * Compiled code checks the assumption without any cost, just like the node's covered flag. A
+ * boundary invalidates the single assumption of the ending epoch, which re-arms all nodes at once
+ * without visiting them: the compiled code that depends on it is deoptimized, and each node
+ * records its section again the next time it is executed.
+ *
+ * When a test ends, the sections covered in its epoch are added to an inverted index from each
+ * section to the tests that covered it. Sections covered while no test runs are not recorded. A
+ * node executing exactly while a boundary is marked may record its section in the ending epoch
+ * after that epoch was indexed, so boundaries should be marked while no test code runs.
+ *
+ * Re-arming a node invalidates compiled code, but it is not counted against the
+ * {@link SimpleCoverageInstrument#INVALIDATION_BUDGET invalidation budget}. It is paid once per
+ * test for the code the test runs, which the test runner controls, so a suite of many tests would
+ * otherwise exceed the budget just by marking its boundaries.
+ */
+public final class TestEpochs {
+
+    private volatile Epoch current = new Epoch(-1);
+
+    /**
+     * The id of each test, by test number. Guarded by this object.
+     */
+    private final List<String> tests = new ArrayList<>();
+
+    /**
+     * The number of each test, by test id, so that a boundary does not search all tests. Guarded
+     * by this object.
+     */
+    private final Map<String, Integer> testNumbers = new HashMap<>();
+
+    /**
+     * The tests of each section, by coverage. Guarded by this object.
+     */
+    private final Map<Coverage, BitSet[]> index = new LinkedHashMap<>();
+
+    TestEpochs() {
+    }
+
+    /**
+     * Records a section in the current epoch. Only called in the interpreter.
+     *
+     * @return the assumption that the epoch the section was recorded in lasts.
+     */
+    Assumption record(Coverage coverage, int sectionId) {
+        final Epoch epoch = current;
+        if (epoch.test >= 0) {
+            epoch.sections.computeIfAbsent(coverage, c -> new SectionSet()).add(sectionId);
+        }
+        return epoch.valid;
+    }
+
+    /**
+     * Ends the current test, if any, and starts recording the sections covered by the given test.
+     * A test that is run more than once is recorded under the same id.
+     */
+    public synchronized void beginTest(String testId) {
+        final int test = testNumbers.computeIfAbsent(testId, id -> {
+            tests.add(id);
+            return tests.size() - 1;
+        });
+        switchTo(new Epoch(test));
+    }
+
+    /**
+     * Ends the current test, if any. Sections covered until the next test begins are not recorded.
+     */
+    public synchronized void endTest() {
+        if (current.test >= 0) {
+            switchTo(new Epoch(-1));
+        }
+    }
+
+    private void switchTo(Epoch next) {
+        final Epoch ended = current;
+        current = next;
+        ended.valid.invalidate();
+        if (ended.test >= 0) {
+            for (Map.Entry<Coverage, SectionSet> entry : ended.sections.entrySet()) {
+                final Coverage coverage = entry.getKey();
+                entry.getValue().forEach(sectionId -> {
+                    BitSet[] sectionTests = index.get(coverage);
+                    if (sectionTests == null || sectionId >= sectionTests.length) {
+                        final BitSet[] grown = new BitSet[Math.max(sectionId + 1, coverage.loadedCount())];
+                        if (sectionTests != null) {
+                            System.arraycopy(sectionTests, 0, grown, 0, sectionTests.length);
+                        }
+                        sectionTests = grown;
+                        index.put(coverage, sectionTests);
+                    }
+                    if (sectionTests[sectionId] == null) {
+                        sectionTests[sectionId] = new BitSet();
+                    }
+                    sectionTests[sectionId].set(ended.test);
+                });
+            }
+        }
+    }
+
+    /**
+     * Forgets which tests covered which sections. A test that runs goes on, but only the sections
+     * it covers from now on are recorded, so the epoch is switched without indexing it. The
+     * recorded nodes are replaced when the instrument is {@link SimpleCoverageInstrument#reset()
+     * reset}, so they record their sections again.
+     */
+    synchronized void reset() {
+        final Epoch ended = current;
+        current = new Epoch(ended.test);
+        ended.valid.invalidate();
+        index.clear();
+    }
+
+    /**
+     * @return each section that was covered by an ended test, with the ids of those tests, in the
+     *         order the sources were first covered.
+     */
+    public synchronized List<TestedSection> getIndex() {
+        final List<TestedSection> sections = new ArrayList<>();
+        for (Map.Entry<Coverage, BitSet[]> entry : index.entrySet()) {
+            final Coverage coverage = entry.getKey();
+            final BitSet[] sectionTests = entry.getValue();
+            final int[] id = {0};
+            coverage.forEachSection((charIndex, charLength, startLine, endLine, granularity, name, isCovered, count) -> {
+                final int sectionId = id[0]++;
+                if (sectionId < sectionTests.length && sectionTests[sectionId] != null) {
+                    sections.add(new TestedSection(coverage.getName(), coverage.getContentHash(), startLine, endLine, charIndex, charLength, granularity, testIds(sectionTests[sectionId])));
+                }
+            });
+        }
+        return sections;
+    }
+
+    /**
+     * @param name the {@link Coverage#getName() name} of a source
+     * @return the ids of the ended tests that covered a section of a source with that name which
+     *         spans any of the given lines, e.g. the lines changed in that source.
+     */
+    public synchronized Set<String> getTests(String name, int startLine, int endLine) {
+        final Set<String> result = new LinkedHashSet<>();
+        for (TestedSection section : getIndex()) {
+            if (section.name.equals(name) && section.startLine <= endLine && section.endLine >= startLine) {
+                result.addAll(section.tests);
+            }
+        }
+        return result;
+    }
+
+    private Set<String> testIds(BitSet testNumbers) {
+        final Set<String> ids = new LinkedHashSet<>();
+        for (int test = testNumbers.nextSetBit(0); test >= 0; test = testNumbers.nextSetBit(test + 1)) {
+            ids.add(tests.get(test));
+        }
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * A section of the inverted index and the tests that covered it.
+     */
+    public static final class TestedSection {
+
+        private final String name;
+        private final long contentHash;
+        private final int startLine;
+        private final int endLine;
+        private final int charIndex;
+        private final int charLength;
+        private final Granularity granularity;
+        private final Set<String> tests;
+
+        TestedSection(String name, long contentHash, int startLine, int endLine, int charIndex, int charLength, Granularity granularity, Set<String> tests) {
+            this.name = name;
+            this.contentHash = contentHash;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.charIndex = charIndex;
+            this.charLength = charLength;
+            this.granularity = granularity;
+            this.tests = tests;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getContentHash() {
+            return contentHash;
+        }
+
+        public int getStartLine() {
+            return startLine;
+        }
+
+        public int getEndLine() {
+            return endLine;
+        }
+
+        public int getCharIndex() {
+            return charIndex;
+        }
+
+        public int getCharLength() {
+            return charLength;
+        }
+
+        public Granularity getGranularity() {
+            return granularity;
+        }
+
+        /**
+         * @return the ids of the tests that covered the section.
+         */
+        public Set<String> getTests() {
+            return tests;
+        }
+    }
+
+    /**
+     * The sections covered by one run of a test, or while no test runs if the test number is
+     * negative.
+     */
+    private static final class Epoch {
+
+        final int test;
+        final Assumption valid = Assumption.create("test epoch");
+        final Map<Coverage, SectionSet> sections = new ConcurrentHashMap<>();
+
+        Epoch(int test) {
+            this.test = test;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.oracle.truffle.st.SimpleCoverageInstrument.Granularity;
+
+/**
+ * The human readable report: each line of each source prefixed with {@code +} if covered,
+ * {@code -} if not covered, or a blank if no statement was loaded for it, and with the execution
+ * count of the line if the instrument is counting. If the source is no longer loaded, only the
+ * markers are printed, without the text of the line.
+ *
+ * If functions or expressions were recorded too, the percentage is followed by a line with the
+ * number of covered and loaded sections of each recorded {@link Granularity}.
+ *
+ * If {@link SimpleCoverageInstrument#COLUMNS columns} are reported, each not covered line is
+ * followed by a line that marks its not covered columns with {@code ^}.
+ *
+ * If {@link SimpleCoverageInstrument#HOT_SECTIONS hot sections} are reported, they follow the
+ * sources, one per line with their approximate count, the possible error of the count and their
+ * location.
+ */
+final class TextReportWriter extends CoverageReportWriter {
+
+    private static final String COUNT_PADDING = "        ";
+
+    TextReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void writeSource(SourceReport report) throws IOException {
+        final int lineCount = report.lineCount;
+        final double coveredPercentage = 100 * (double) report.coveredLineCount / lineCount;
+        out.write("==\n");
+        out.write("Coverage of " + report.name + " is " + String.format("%.2f%%", coveredPercentage) + "\n");
+        if (report.hasGranularities()) {
+            writeGranularities(report);
+        }
+        for (int i = 1; i <= lineCount; i++) {
+            out.write(report.isLoaded(i) ? (report.isCovered(i) ? '+' : '-') : ' ');
+            out.write(' ');
+            if (report.lineCounts != null) {
+                final String count = report.isLoaded(i) ? Long.toString(report.hits(i)) : "";
+                out.write(COUNT_PADDING, 0, Math.max(0, COUNT_PADDING.length() - count.length()));
+                out.write(count);
+                out.write(' ');
+            }
+            if (report.source != null) {
+                out.append(report.source.getCharacters(i));
+            }
+            out.write('\n');
+            if (report.isLoaded(i) && !report.isCovered(i)) {
+                writeColumns(report, i);
+            }
+        }
+    }
+
+    @Override
+    void writeHotSections(List<HotSections.HotSection> hotSections) throws IOException {
+        out.write("==\n");
+        out.write("Hot sections, by approximate execution count\n");
+        for (HotSections.HotSection section : hotSections) {
+            final String count = Long.toString(section.getCount());
+            out.write(COUNT_PADDING, 0, Math.max(0, COUNT_PADDING.length() - count.length()));
+            out.write(count);
+            out.write(" +-");
+            write(section.getError());
+            out.write(' ');
+            out.write(section.getName());
+            out.write(':');
+            write(section.getStartLine());
+            if (section.getEndLine() != section.getStartLine()) {
+                out.write('-');
+                write(section.getEndLine());
+            }
+            out.write('\n');
+        }
+    }
+
+    private void writeColumns(SourceReport report, int line) throws IOException {
+        final int[] columns = report.nonCoveredColumns(line);
+        if (columns == null || columns.length == 0) {
+            return;
+        }
+        out.write(report.lineCounts != null ? COUNT_PADDING + "   " : "  ");
+        final CharSequence text = report.source.getCharacters(line);
+        int column = 1;
+        for (int i = 0; i < columns.length; i += 2) {
+            for (; column < columns[i]; column++) {
+                // Keep tabs, so that the markers line up with the text above them.
+                out.write(text.charAt(column - 1) == '\t' ? '\t' : ' ');
+            }
+            for (; column < columns[i + 1]; column++) {
+                out.write('^');
+            }
+        }
+        out.write('\n');
+    }
+
+    private void writeGranularities(SourceReport report) throws IOException {
+        String separator = "Covered ";
+        for (Granularity granularity : Granularity.VALUES) {
+            final int loaded = report.loadedSections(granularity);
+            if (loaded > 0) {
+                out.write(separator);
+                write(report.coveredSections(granularity));
+                out.write('/');
+                write(loaded);
+                out.write(granularity == Granularity.ROOT ? " functions" : granularity == Granularity.STATEMENT ? " statements" : " expressions");
+                separator = ", ";
+            }
+        }
+        out.write('\n');
+    }
+}
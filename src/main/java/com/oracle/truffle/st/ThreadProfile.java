@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2026, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st;
+
+import java.util.Arrays;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.TruffleContext;
+
+/**
+ * The profile of a single thread in a single context, kept in a
+ * {@link com.oracle.truffle.api.ContextThreadLocal context thread local} of the
+ * {@link SimpleProfilerInstrument}. Only its own thread writes to it, so it needs no locks: a
+ * {@link ProfilerNode} pushes the time a call is entered on the {@link #starts stack} of the thread,
+ * and pops it when the call returns to record the wall time of the call in the
+ * {@link LatencyHistogram} of its function. The times of recursive calls are all recorded, each
+ * including the calls it made.
+ *
+ * Other threads only read the histograms, when the profiles of all threads are merged, and when
+ * the thread or its context is disposed and the profile is folded into the retired histograms of
+ * the instrument.
+ */
+final class ThreadProfile {
+
+    final TruffleContext context;
+    final Thread thread;
+
+    private long[] starts = new long[64];
+    private int depth;
+
+    /**
+     * The histogram of each function, by {@link SimpleProfilerInstrument.Function#id id}, created
+     * when the function is first called on this thread. Replaced when it grows, so that readers
+     * always see a complete array.
+     */
+    private volatile LatencyHistogram[] histograms = new LatencyHistogram[0];
+
+    ThreadProfile(TruffleContext context, Thread thread) {
+        this.context = context;
+        this.thread = thread;
+    }
+
+    @TruffleBoundary
+    void enter() {
+        if (depth == starts.length) {
+            starts = Arrays.copyOf(starts, depth * 2);
+        }
+        starts[depth++] = System.nanoTime();
+    }
+
+    /**
+     * Records a call of the function that is returning, normally or by an exception.
+     */
+    @TruffleBoundary
+    void exit(int function) {
+        if (depth == 0) {
+            // The call was entered before the instrument was attached.
+            return;
+        }
+        final long nanos = System.nanoTime() - starts[--depth];
+        LatencyHistogram[] current = histograms;
+        if (function >= current.length || current[function] == null) {
+            // Copied even if it does not grow, to publish the new histogram.
+            current = Arrays.copyOf(current, function < current.length ? current.length : Math.max(function + 1, current.length * 2));
+            current[function] = new LatencyHistogram();
+            histograms = current;
+        }
+        current[function].record(nanos);
+    }
+
+    /**
+     * Adds the histogram of the function, if it was called on this thread, to a merged histogram.
+     */
+    void addTo(int function, long[] merged) {
+        final LatencyHistogram[] current = histograms;
+        if (function < current.length && current[function] != null) {
+            current[function].addTo(merged);
+        }
+    }
+
+    /**
+     * Adds the histograms of all functions called on this thread to merged histograms, by function
+     * id.
+     *
+     * @return the merged histograms, grown if this thread called functions they do not include
+     */
+    long[][] addAllTo(long[][] merged) {
+        final LatencyHistogram[] current = histograms;
+        long[][] result = merged;
+        for (int function = 0; function < current.length; function++) {
+            if (current[function] != null) {
+                if (function >= result.length) {
+                    result = Arrays.copyOf(result, current.length);
+                }
+                if (result[function] == null) {
+                    result[function] = new long[LatencyHistogram.LENGTH];
+                }
+                current[function].addTo(result[function]);
+            }
+        }
+        return result;
+    }
+}
@@ -41,10 +41,12 @@
 module org.graalvm.st {
   requires java.base;
   requires java.logging;
+  requires static jdk.jfr;
   requires jdk.unsupported;
   requires org.graalvm.polyglot;
   requires org.graalvm.truffle;
   exports com.oracle.truffle.st to org.graalvm.st.test;
   provides com.oracle.truffle.api.instrumentation.provider.TruffleInstrumentProvider with
-    com.oracle.truffle.st.SimpleCoverageInstrumentProvider;
+    com.oracle.truffle.st.SimpleCoverageInstrumentProvider,
+    com.oracle.truffle.st.SimpleProfilerInstrumentProvider;
 }
@@ -40,24 +40,50 @@
  */
 package com.oracle.truffle.st.test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
 import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Test;
 
+import com.oracle.truffle.st.ContextCoverage;
 import com.oracle.truffle.st.Coverage;
+import com.oracle.truffle.st.CoverageFile;
+import com.oracle.truffle.st.CoverageStatistics;
+import com.oracle.truffle.st.CoverageSummary;
+import com.oracle.truffle.st.HotSections;
 import com.oracle.truffle.st.SimpleCoverageInstrument;
+import com.oracle.truffle.st.SnapshotMerger;
+import com.oracle.truffle.st.TestEpochs;
+import com.sun.management.ThreadMXBean;
 
 public class SimpleCoverageInstrumentTest {
 
-    private static final String JS_SOURCE = """
+    static final String JS_SOURCE = """
             var N = 2000;
             var EXPECTED = 17393;
 
@@ -143,8 +169,742 @@ public class SimpleCoverageInstrumentTest {
         }
     }
 
+    // Removing the instrumentation of covered code must not lose coverage of code that is loaded
+    // or executed after the instrumentation was removed.
+    @Test
+    public void removeCoveredJSTest() throws IOException, InterruptedException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".RemoveCovered", "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            // Functions that are parsed lazily inside covered statements are only instrumented
+            // once the system thread of the instrument has rebound the source.
+            final long deadline = System.currentTimeMillis() + 10000;
+            do {
+                context.eval(source);
+                Thread.sleep(50);
+            } while (!Arrays.asList(19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68).equals(nonCoveredLines(context.getEngine())) && System.currentTimeMillis() < deadline);
+            assertJSCorrect(context);
+        }
+    }
+
+    // A lazily parsed function lies inside a statement that is already covered, so the binding
+    // that excludes the statement does not instrument it. The loading thread only schedules a
+    // rebind, after which the function is recorded.
+    @Test
+    public void lazyFunctionsRemoveCoveredJSTest() throws IOException, InterruptedException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        final String code = """
+                        var functions = [
+                            function a() {
+                                return 1;
+                            },
+                            function b() {
+                                return 2;
+                            }
+                        ];
+                        """;
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".RemoveCovered", "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            context.eval(Source.newBuilder("js", code, "lazy.js").build());
+            Value functions = context.getBindings("js").getMember("functions");
+            callUntilCovered(context, functions.getArrayElement(0), 3);
+            Assert.assertFalse(nonCoveredLines(context.getEngine()).contains(3));
+            Assert.assertFalse(coveredLines(context.getEngine()).contains(6));
+            callUntilCovered(context, functions.getArrayElement(1), 6);
+            Assert.assertEquals(Collections.emptyList(), nonCoveredLines(context.getEngine()));
+            Assert.assertTrue(context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class).isRunning());
+        }
+    }
+
+    private static void callUntilCovered(Context context, Value function, int line) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!coveredLines(context.getEngine()).contains(line)) {
+            Assert.assertTrue("line " + line + " not covered", System.currentTimeMillis() < deadline);
+            function.execute();
+            Thread.sleep(50);
+        }
+    }
+
+    // See the note on assertNotCoveredLines about these lookups.
+    private static List<Integer> nonCoveredLines(Engine engine) {
+        SimpleCoverageInstrument coverageInstrument = engine.getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+        List<Integer> lines = new ArrayList<>();
+        coverageInstrument.getCoverageMap().keySet().forEach(s -> lines.addAll(coverageInstrument.nonCoveredLineNumbers(s)));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static List<Integer> coveredLines(Engine engine) {
+        SimpleCoverageInstrument coverageInstrument = engine.getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+        List<Integer> lines = new ArrayList<>();
+        coverageInstrument.getCoverageMap().values().forEach(c -> c.coveredLines().stream().forEach(lines::add));
+        return lines;
+    }
+
+    // First hits in compiled code are recorded before the batch that sets their covered flags is
+    // flushed, so batching must not lose coverage.
+    @Test
+    public void firstHitBatchJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".FirstHitBatch", "16").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            for (int i = 0; i < 3; i++) {
+                context.eval(source);
+            }
+            assertJSCorrect(context);
+        }
+    }
+
+    // Sources are only held weakly when summaries are retained, but coverage of live sources must
+    // be unaffected.
+    @Test
+    public void summaryRetentionJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Retention", "summary").option(SimpleCoverageInstrument.ID + ".RetentionLimit", "1").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            context.eval(source);
+            assertJSCorrect(context);
+        }
+    }
+
+    @Test
+    public void lcovReportJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path report = Files.createTempFile("coverage", ".info");
+        try {
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".OutputFormat", "lcov").option(SimpleCoverageInstrument.ID + ".OutputFile", report.toString()).build()) {
+                Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                context.eval(source);
+            }
+            // The report is written when the engine is closed.
+            List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8);
+            Assert.assertTrue(lines.contains("SF:main"));
+            Assert.assertTrue(lines.contains("DA:19,0"));
+            Assert.assertTrue(lines.contains("DA:71,1"));
+            Assert.assertTrue(lines.contains("end_of_record"));
+        } finally {
+            Files.delete(report);
+        }
+    }
+
+    // A line with one executed and one never executed statement is not covered, so its count in
+    // the report must be 0 to agree with the totals, even though the line was executed.
+    @Test
+    public void countsLcovReportJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path report = Files.createTempFile("coverage", ".info");
+        try {
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Mode", "counts").option(SimpleCoverageInstrument.ID + ".OutputFormat", "lcov").option(SimpleCoverageInstrument.ID + ".OutputFile", report.toString()).build()) {
+                context.eval(Source.newBuilder("js", "var x = 1; if (x > 2) { x = 3; }\nx = x + 1;\n", "partial.js").build());
+            }
+            List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8);
+            Assert.assertTrue(lines.contains("DA:1,0"));
+            Assert.assertTrue(lines.contains("DA:2,1"));
+            Assert.assertTrue(lines.contains("LF:2"));
+            Assert.assertTrue(lines.contains("LH:1"));
+        } finally {
+            Files.delete(report);
+        }
+    }
+
+    // Minified code has a whole program on one line, so only the character ranges tell which
+    // function was not called.
+    @Test
+    public void minifiedJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        final String minified = "function f(){return 1}function g(){return 2}f();";
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            context.eval(Source.newBuilder("js", minified, "min.js").build());
+            // See the note on assertNotCoveredLines about this lookup.
+            Coverage coverage = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class).getCoverageMap().values().iterator().next();
+            Assert.assertFalse(coverage.isLineCovered(1));
+            int[] ranges = coverage.nonCoveredRanges();
+            Assert.assertEquals(2, ranges.length);
+            Assert.assertTrue(minified.substring(ranges[0], ranges[1]).contains("return 2"));
+            Assert.assertFalse(minified.substring(ranges[0], ranges[1]).contains("return 1"));
+            Assert.assertEquals(0, coverage.nonCoveredRanges(0, minified.indexOf("function g")).length);
+        }
+    }
+
+    // Recording functions next to statements adds function records, but must not change the line
+    // results, even though a function spans lines without statements.
+    @Test
+    public void granularityJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path report = Files.createTempFile("coverage", ".info");
+        try {
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Granularity", "root,statement").option(SimpleCoverageInstrument.ID + ".OutputFormat", "lcov").option(SimpleCoverageInstrument.ID + ".OutputFile", report.toString()).build()) {
+                Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                context.eval(source);
+                assertJSCorrect(context);
+                // See the note on assertNotCoveredLines about this lookup.
+                Coverage coverage = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class).getCoverageMap().values().iterator().next();
+                Assert.assertTrue(coverage.coveredCount(SimpleCoverageInstrument.Granularity.ROOT) < coverage.loadedCount(SimpleCoverageInstrument.Granularity.ROOT));
+            }
+            List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8);
+            Assert.assertTrue(lines.contains("FN:4,Natural"));
+            Assert.assertTrue(lines.contains("FNDA:1,primesMain"));
+            Assert.assertTrue(lines.contains("DA:19,0"));
+            Assert.assertTrue(lines.contains("DA:71,1"));
+        } finally {
+            Files.delete(report);
+        }
+    }
+
+    @Test
+    public void countsJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Mode", "counts").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            context.eval(source);
+            assertJSCorrect(context);
+            SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            coverageInstrument.getCoverageMap().forEach((com.oracle.truffle.api.source.Source s, Coverage v) -> {
+                long[] lineCounts = coverageInstrument.lineCounts(s);
+                // primesMain() and its first statement run once, the loop body once per prime.
+                Assert.assertEquals(1, lineCounts[71]);
+                Assert.assertEquals(1, lineCounts[64]);
+                Assert.assertTrue(lineCounts[66] > 2000);
+                Assert.assertEquals(0, lineCounts[68]);
+            });
+        }
+    }
+
+    // The line tables of a large source are queried without boxing a line number, so reading
+    // them allocates a small fraction of what one boxed Integer per line would.
+    @Test
+    public void lineTablesJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        final int functionCount = 5000;
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < functionCount; i++) {
+            code.append("function f").append(i).append("() {\n    return ").append(i).append(";\n}\n");
+        }
+        for (int i = 0; i < functionCount; i += 2) {
+            code.append("f").append(i).append("();\n");
+        }
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            context.eval(Source.newBuilder("js", code.toString(), "large.js").build());
+            // See the note on assertNotCoveredLines about this lookup.
+            SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            com.oracle.truffle.api.source.Source source = coverageInstrument.getCoverageMap().keySet().iterator().next();
+            Coverage coverage = coverageInstrument.getCoverageMap().get(source);
+            BitSet nonCoveredLines = coverageInstrument.nonCoveredLines(source);
+            // Only the return statement of each function that was not called is not covered.
+            Assert.assertEquals(functionCount / 2, nonCoveredLines.cardinality());
+            for (int i = 1; i < functionCount; i += 2) {
+                Assert.assertTrue(nonCoveredLines.get(3 * i + 2));
+            }
+            Assert.assertEquals(nonCoveredLines.stream().boxed().collect(Collectors.toSet()), coverageInstrument.nonCoveredLineNumbers(source));
+            Assert.assertFalse(coverage.coveredLines().intersects(nonCoveredLines));
+            BitSet loadedLines = coverage.loadedLines();
+            loadedLines.andNot(coverage.coveredLines());
+            Assert.assertEquals(nonCoveredLines, loadedLines);
+
+            ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+            long allocated = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                long before = threads.getCurrentThreadAllocatedBytes();
+                coverageInstrument.nonCoveredLines(source);
+                allocated = Math.min(allocated, threads.getCurrentThreadAllocatedBytes() - before);
+            }
+            // A boxed Integer alone takes 16 bytes.
+            Assert.assertTrue(allocated + " bytes", allocated < 16L * coverage.getLineCount() / 4);
+        }
+    }
+
+    // Reports of many sources are computed in parallel. The sources are loaded in a different
+    // order each run, and their sizes differ so that their reports are not computed in the order
+    // they are written, but the report must come out the same.
+    @Test
+    public void parallelReportJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        final int sourceCount = 64;
+        List<String> expectedNames = new ArrayList<>();
+        for (int i = 0; i < sourceCount; i++) {
+            expectedNames.add(String.format("source%02d.js", i));
+        }
+        String firstReport = null;
+        for (int run = 0; run < 3; run++) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < sourceCount; i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, new Random(run));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").out(out).build()) {
+                for (int i : order) {
+                    StringBuilder code = new StringBuilder();
+                    // The sources that are written first are the largest.
+                    for (int j = 0; j < (sourceCount - i) * 50; j++) {
+                        code.append("var x").append(j).append(" = ").append(j).append(";\n");
+                    }
+                    context.eval(Source.newBuilder("js", code.toString(), expectedNames.get(i)).build());
+                }
+            }
+            String report = out.toString(StandardCharsets.UTF_8);
+            List<String> names = report.lines().filter(line -> line.startsWith("Coverage of ")).map(line -> line.substring("Coverage of ".length(), line.lastIndexOf(" is "))).collect(Collectors.toList());
+            Assert.assertEquals(expectedNames, names);
+            if (firstReport == null) {
+                firstReport = report;
+            } else {
+                Assert.assertEquals(firstReport, report);
+            }
+        }
+    }
+
     private static void assertJSCorrect(final Context context) {
-        assertNotCoveredLines(context,  19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68);
+        assertJSCorrect(context.getEngine());
+    }
+
+    private static void assertJSCorrect(final Engine engine) {
+        assertNotCoveredLines(engine,  19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68);
+    }
+
+    // Coverage is recorded without locking, so many threads running the same code in contexts of
+    // a shared engine must still agree on a single, correct result.
+    @Test
+    public void concurrentJSTest() throws Exception {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        final int threadCount = 8;
+        try (Engine engine = Engine.newBuilder().option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            final Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                Thread thread = new Thread(() -> {
+                    try (Context context = Context.newBuilder("js").engine(engine).build()) {
+                        start.await();
+                        for (int j = 0; j < 3; j++) {
+                            context.eval(source);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertNull(failure.get());
+            assertJSCorrect(engine);
+        }
+    }
+
+    // Sections are registered in batches per thread and source. Threads that call functions of
+    // several sources in turn, which are parsed lazily, move between sources after few sections
+    // each and share their sources with other threads, yet no section may be lost or duplicated.
+    @Test
+    public void interleavedLoadJSTest() throws Exception {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        final int threadCount = 4;
+        final int sourceCount = 6;
+        final int functionCount = 300;
+        try (Engine engine = Engine.newBuilder().option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            final List<Source> sources = new ArrayList<>();
+            for (int s = 0; s < sourceCount; s++) {
+                StringBuilder code = new StringBuilder();
+                for (int i = 0; i < functionCount; i++) {
+                    code.append("function s").append(s).append("f").append(i).append("() {\n    return ").append(i).append(";\n}\n");
+                }
+                sources.add(Source.newBuilder("js", code.toString(), "source" + s + ".js").build());
+            }
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final List<Thread> threads = new ArrayList<>();
+            for (int n = 0; n < threadCount; n++) {
+                final int offset = n;
+                Thread thread = new Thread(() -> {
+                    try (Context context = Context.newBuilder("js").engine(engine).build()) {
+                        start.await();
+                        for (int s = 0; s < sourceCount; s++) {
+                            context.eval(sources.get((s + offset) % sourceCount));
+                        }
+                        Value bindings = context.getBindings("js");
+                        // Each thread calls a different half of the even functions, in turn across
+                        // the sources, so that threads load sections of the same source at once.
+                        for (int i = 2 * (offset % 2); i < functionCount; i += 4) {
+                            for (int s = 0; s < sourceCount; s++) {
+                                bindings.getMember("s" + ((s + offset) % sourceCount) + "f" + i).execute();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertNull(failure.get());
+            SimpleCoverageInstrument coverageInstrument = engine.getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            Map<com.oracle.truffle.api.source.Source, Coverage> coverageMap = coverageInstrument.getCoverageMap();
+            Assert.assertEquals(sourceCount, coverageMap.size());
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 1; i < functionCount; i += 2) {
+                expected.add(3 * i + 2);
+            }
+            coverageMap.forEach((com.oracle.truffle.api.source.Source s, Coverage v) -> {
+                // Only the return statement of each function that was not called is not covered.
+                Assert.assertEquals(s.getName(), expected, coverageInstrument.nonCoveredLineNumbers(s));
+                for (int i = 0; i < functionCount; i++) {
+                    Assert.assertTrue(s.getName(), v.loadedLines().get(3 * i + 2));
+                }
+            });
+        }
+    }
+
+    // Uncached sources with the same name and content, as loaded by pooled contexts, must share a
+    // single coverage that aggregates their results.
+    @Test
+    public void identicalSourcesJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Engine engine = Engine.newBuilder().option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            for (int i = 0; i < 3; i++) {
+                try (Context context = Context.newBuilder("js").engine(engine).build()) {
+                    context.eval(Source.newBuilder("js", JS_SOURCE, "main").cached(false).build());
+                }
+            }
+            SimpleCoverageInstrument coverageInstrument = engine.getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            Map<com.oracle.truffle.api.source.Source, Coverage> coverageMap = coverageInstrument.getCoverageMap();
+            Assert.assertEquals(1, coverageMap.values().stream().distinct().count());
+            coverageMap.forEach((com.oracle.truffle.api.source.Source s, Coverage v) -> {
+                Assert.assertArrayEquals(new Object[]{19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68}, coverageInstrument.nonCoveredLineNumbers(s).stream().sorted().toArray());
+            });
+        }
+    }
+
+    // Contexts of a shared engine must keep sharing the parsed code while their coverage is
+    // recorded separately. The source cache traces a miss each time a source is parsed.
+    @Test
+    public void perContextJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try (Engine engine = Engine.newBuilder().option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".PerContext", "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").option("engine.TraceSourceCache", "true").logHandler(log).build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            // The idle context never runs any code, but it must have a coverage of its own.
+            Context idle = Context.newBuilder("js").engine(engine).build();
+            try (Context first = Context.newBuilder("js").engine(engine).build(); Context second = Context.newBuilder("js").engine(engine).build()) {
+                first.eval(source);
+                second.eval(source);
+                assertJSCorrect(engine);
+                SimpleCoverageInstrument coverageInstrument = engine.getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+                List<ContextCoverage> contextCoverages = coverageInstrument.getContextCoverages();
+                Assert.assertEquals(3, contextCoverages.size());
+                coverageInstrument.getCoverageMap().forEach((com.oracle.truffle.api.source.Source s, Coverage v) -> {
+                    Object[] expected = coverageInstrument.nonCoveredLineNumbers(s).stream().sorted().toArray();
+                    Assert.assertArrayEquals(expected, contextCoverages.get(1).nonCoveredLineNumbers(s).stream().sorted().toArray());
+                    Assert.assertArrayEquals(expected, contextCoverages.get(2).nonCoveredLineNumbers(s).stream().sorted().toArray());
+                    Assert.assertTrue(contextCoverages.get(0).coveredLines(s).isEmpty());
+                });
+                // A source that was never loaded has no lines in any context.
+                com.oracle.truffle.api.source.Source unloaded = com.oracle.truffle.api.source.Source.newBuilder("js", "var unloaded;", "unloaded.js").build();
+                Assert.assertTrue(contextCoverages.get(1).nonCoveredLines(unloaded).isEmpty());
+                Assert.assertTrue(contextCoverages.get(1).coveredLines(unloaded).isEmpty());
+            } finally {
+                idle.close();
+            }
+        }
+        long misses = log.toString(StandardCharsets.UTF_8).lines().filter(line -> line.contains("source-cache-miss") && line.contains("main")).count();
+        Assert.assertEquals(1, misses);
+    }
+
+    // The mapped file is read the way an external process would, while the context is running and
+    // after the counts were written on close.
+    @Test
+    public void mappedFileJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path mappedFile = Files.createTempFile("simpletool", ".map");
+        try {
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Mode", "counts").option(SimpleCoverageInstrument.ID + ".MappedFile", mappedFile.toString()).option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+                Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                context.eval(source);
+                List<CoverageSummary> summaries = CoverageFile.read(mappedFile);
+                Assert.assertEquals(1, summaries.size());
+                Assert.assertEquals("main", summaries.get(0).getName());
+                BitSet nonCoveredLines = summaries.get(0).nonCoveredLines();
+                Assert.assertArrayEquals(new Object[]{19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68}, nonCoveredLines.stream().boxed().toArray());
+            }
+            long[] lineCounts = CoverageFile.read(mappedFile).get(0).lineCounts();
+            Assert.assertEquals(1, lineCounts[71]);
+            Assert.assertTrue(lineCounts[66] > 2000);
+        } finally {
+            Files.delete(mappedFile);
+        }
+    }
+
+    @Test
+    public void snapshotMergeJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path first = Files.createTempFile("simpletool", ".snap");
+        Path second = Files.createTempFile("simpletool", ".snap");
+        try {
+            // Each context writes its own snapshot, like the shards of a test suite would.
+            for (Path snapshot : new Path[]{first, second}) {
+                try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Mode", "counts").option(SimpleCoverageInstrument.ID + ".OutputFormat", "snapshot").option(SimpleCoverageInstrument.ID + ".OutputFile", snapshot.toString()).build()) {
+                    Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                    context.eval(source);
+                }
+            }
+            List<CoverageSummary> summaries = SnapshotMerger.mergeSummaries(Arrays.asList(first, second));
+            Assert.assertEquals(1, summaries.size());
+            Assert.assertArrayEquals(new Object[]{19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68}, summaries.get(0).nonCoveredLines().stream().boxed().toArray());
+            Assert.assertEquals(2, summaries.get(0).lineCounts()[71]);
+        } finally {
+            Files.delete(first);
+            Files.delete(second);
+        }
+    }
+
+    // A corrupt shard must fail the merge with an IOException that names it, rather than with an
+    // unchecked exception or by running out of memory.
+    @Test
+    public void corruptSnapshotTest() throws IOException {
+        Path corrupt = Files.createTempFile("simpletool", ".snap");
+        try {
+            byte[] header = "STCOVSNP".getBytes(StandardCharsets.US_ASCII);
+            // Version 2 without counts, one source named "a" with 10 lines.
+            byte[] source = {2, 0, 1, 1, 'a', 0, 0, 0, 0, 0, 0, 0, 0, 10};
+            byte[][] sections = {
+                            // A name longer than the file.
+                            {1, 2, 0, 0, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07},
+                            // A granularity that does not exist.
+                            {1, 2, 0, 0, 1, 9},
+                            // A section past the last line.
+                            {1, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0, 0, 1, 0},
+                            // Far more sections than the file holds.
+                            {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}};
+            for (byte[] section : sections) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                bytes.write(header);
+                bytes.write(source);
+                bytes.write(section);
+                Files.write(corrupt, bytes.toByteArray());
+                try {
+                    SnapshotMerger.mergeSummaries(Arrays.asList(corrupt));
+                    Assert.fail("A corrupt snapshot was merged.");
+                } catch (IOException e) {
+                    Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(corrupt.toString()));
+                }
+            }
+        } finally {
+            Files.delete(corrupt);
+        }
+    }
+
+    // Sections covered by the baseline are not instrumented again, but must still be reported as
+    // covered, also for sources the second run does not load.
+    @Test
+    public void baselineJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path baseline = Files.createTempFile("simpletool", ".snap");
+        Path snapshot = Files.createTempFile("simpletool", ".snap");
+        try {
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".OutputFormat", "snapshot").option(SimpleCoverageInstrument.ID + ".OutputFile", baseline.toString()).build()) {
+                Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                context.eval(source);
+            }
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Baseline", baseline.toString()).option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+                Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                context.eval(source);
+                assertJSCorrect(context);
+            }
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Baseline", baseline.toString()).option(SimpleCoverageInstrument.ID + ".OutputFormat", "snapshot").option(SimpleCoverageInstrument.ID + ".OutputFile", snapshot.toString()).build()) {
+                context.eval("js", "1 + 1");
+            }
+            List<CoverageSummary> summaries = SnapshotMerger.mergeSummaries(Arrays.asList(snapshot));
+            CoverageSummary main = summaries.stream().filter(summary -> summary.getName().equals("main")).findFirst().get();
+            Assert.assertArrayEquals(new Object[]{19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68}, main.nonCoveredLines().stream().boxed().toArray());
+        } finally {
+            Files.delete(baseline);
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void exportJSTest() throws IOException, InterruptedException, ExecutionException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path directory = Files.createTempDirectory("simpletool");
+        try {
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".ExportDirectory", directory.toString()).option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+                Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                context.eval(source);
+                // See the note on assertNotCoveredLines about this lookup.
+                SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+                Path first = coverageInstrument.exportSnapshot().get();
+                Assert.assertNotNull(first);
+                // Nothing changed since the first export.
+                Assert.assertNull(coverageInstrument.exportSnapshot().get());
+                List<CoverageSummary> summaries = SnapshotMerger.mergeSummaries(Arrays.asList(directory));
+                Assert.assertEquals(1, summaries.size());
+                Assert.assertArrayEquals(new Object[]{19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68}, summaries.get(0).nonCoveredLines().stream().boxed().toArray());
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void startStopResetJSTest() throws IOException, InterruptedException, ExecutionException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        Path directory = Files.createTempDirectory("simpletool");
+        try {
+            try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Dormant", "true").option(SimpleCoverageInstrument.ID + ".HotSections", "3").option(SimpleCoverageInstrument.ID + ".TestEpochs", "true").option(SimpleCoverageInstrument.ID + ".ExportDirectory", directory.toString()).option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+                Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+                // See the note on assertNotCoveredLines about this lookup.
+                SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+                TestEpochs epochs = coverageInstrument.getTestEpochs();
+                context.eval(source);
+                Assert.assertFalse(coverageInstrument.isRunning());
+                Assert.assertTrue(coverageInstrument.getCoverageMap().isEmpty());
+                // Starting finds the code that was loaded while dormant.
+                coverageInstrument.start();
+                epochs.beginTest("test");
+                context.eval(source);
+                assertNotCoveredLines(context, 19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68);
+                long hotCount = coverageInstrument.getHotSections().get(0).getCount();
+                Assert.assertNotNull(coverageInstrument.exportSnapshot().get());
+                coverageInstrument.reset();
+                Coverage coverage = coverageInstrument.getCoverageMap().values().iterator().next();
+                Assert.assertEquals(0, coverage.coveredCount());
+                Assert.assertTrue(coverageInstrument.getHotSections().isEmpty());
+                Assert.assertTrue(epochs.getIndex().isEmpty());
+                context.eval(source);
+                assertNotCoveredLines(context, 19, 23, 40, 47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, 58, 61, 68);
+                // Counted from the reset, and exported again as covered.
+                Assert.assertEquals(hotCount, coverageInstrument.getHotSections().get(0).getCount());
+                Assert.assertNotNull(coverageInstrument.exportSnapshot().get());
+                epochs.endTest();
+                Assert.assertEquals(Collections.singleton("test"), epochs.getTests("main", 18, 18));
+                coverageInstrument.stop();
+                coverageInstrument.reset();
+                context.eval(source);
+                Assert.assertEquals(0, coverage.coveredCount());
+                Assert.assertTrue(epochs.getIndex().isEmpty());
+                Assert.assertNull(coverageInstrument.exportSnapshot().get());
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testEpochsJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".TestEpochs", "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", "function a() {\n  return 1;\n}\nfunction b() {\n  return 2;\n}\n", "tests.js").build();
+            context.eval(source);
+            Value a = context.getBindings("js").getMember("a");
+            Value b = context.getBindings("js").getMember("b");
+            // See the note on assertNotCoveredLines about this lookup.
+            TestEpochs epochs = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class).getTestEpochs();
+            epochs.beginTest("testA");
+            a.execute();
+            epochs.beginTest("testB");
+            b.execute();
+            a.execute();
+            epochs.endTest();
+            // Not recorded, as no test runs.
+            b.execute();
+            Assert.assertEquals(new LinkedHashSet<>(Arrays.asList("testA", "testB")), epochs.getTests("tests.js", 2, 2));
+            Assert.assertEquals(Collections.singleton("testB"), epochs.getTests("tests.js", 5, 5));
+        }
+    }
+
+    // Each test re-arms the nodes of the code it runs, which must not use up the invalidation
+    // budget of a suite with many tests.
+    @Test
+    public void testEpochsBudgetJSTest() throws IOException, InterruptedException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".TestEpochs", "true").option(SimpleCoverageInstrument.ID + ".InvalidationBudget", "20").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").err(err).build()) {
+            context.eval(Source.newBuilder("js", "function a() {\n  return 1;\n}\n", "tests.js").build());
+            Value a = context.getBindings("js").getMember("a");
+            // See the note on assertNotCoveredLines about this lookup.
+            SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            TestEpochs epochs = coverageInstrument.getTestEpochs();
+            for (int i = 0; i < 100; i++) {
+                epochs.beginTest("test" + i);
+                a.execute();
+            }
+            epochs.endTest();
+            // The instrumentation would be detached by the governor thread, give it time to.
+            Thread.sleep(200);
+            Assert.assertTrue(coverageInstrument.isRunning());
+            Assert.assertEquals(100, epochs.getTests("tests.js", 2, 2).size());
+        }
+        Assert.assertFalse(err.toString().contains("Overhead budget exceeded"));
+    }
+
+    @Test
+    public void nodeBudgetJSTest() throws IOException, InterruptedException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".NodeBudget", "5").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").err(err).build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            // See the note on assertNotCoveredLines about this lookup.
+            SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            Assert.assertTrue(coverageInstrument.isRunning());
+            context.eval(source);
+            // The instrumentation is detached by the governor thread, not by the guest thread.
+            for (int i = 0; i < 100 && coverageInstrument.isRunning(); i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertFalse(coverageInstrument.isRunning());
+        }
+        Assert.assertTrue(err.toString().contains("Overhead budget exceeded"));
+    }
+
+    // Code run in a sample window is covered, code run after it closed is not, and the
+    // instrumentation stays attached between windows rather than being attached for each.
+    @Test
+    public void sampleWindowJSTest() throws IOException, InterruptedException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        final long window = 2000;
+        final long start = System.currentTimeMillis();
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".SampleWindow", Long.toString(window)).option(SimpleCoverageInstrument.ID + ".SamplePeriod", "3600000").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            context.eval(Source.newBuilder("js", "function a() {\n  return 1;\n}\nfunction b() {\n  return 2;\n}\na();\n", "sampled.js").build());
+            // The first window opens with the instrument, so this only fails on a very slow start.
+            Assert.assertTrue(System.currentTimeMillis() - start < window);
+            Thread.sleep(start + window + 1000 - System.currentTimeMillis());
+            context.getBindings("js").getMember("b").execute();
+            // See the note on assertNotCoveredLines about this lookup.
+            SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            Assert.assertTrue(coverageInstrument.isRunning());
+            com.oracle.truffle.api.source.Source source = coverageInstrument.getCoverageMap().keySet().iterator().next();
+            Assert.assertArrayEquals(new Object[]{5}, coverageInstrument.nonCoveredLineNumbers(source).stream().sorted().toArray());
+        }
+    }
+
+    @Test
+    public void excludeJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".Exclude", "main,**/vendor/**").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            context.eval(Source.newBuilder("js", JS_SOURCE, "main").build());
+            context.eval(Source.newBuilder("js", "var x = 1;\n", "vendor/lib.js").build());
+            context.eval(Source.newBuilder("js", "var y = 2;\n", "app.js").build());
+            // See the note on assertNotCoveredLines about this lookup.
+            Map<com.oracle.truffle.api.source.Source, Coverage> coverageMap = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class).getCoverageMap();
+            Assert.assertEquals(1, coverageMap.size());
+            Assert.assertEquals("app.js", coverageMap.keySet().iterator().next().getName());
+        }
     }
 
     // NOTE: This lookup mechanism used in this method does not work in normal deployments
@@ -154,9 +914,13 @@ public class SimpleCoverageInstrumentTest {
     // the command line.
     // This command line flag should never be used in production.
     private static void assertNotCoveredLines(final Context context, Object... expected) {
+        assertNotCoveredLines(context.getEngine(), expected);
+    }
+
+    private static void assertNotCoveredLines(final Engine engine, Object... expected) {
         // We can lookup services exported by the instrument, in our case this is
         // the instrument itself but it does not have to be.
-        SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+        SimpleCoverageInstrument coverageInstrument = engine.getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
         // We then use the looked up service to assert that it behaves as expected, just like in any
         // other test.
         Map<com.oracle.truffle.api.source.Source, Coverage> coverageMap = coverageInstrument.getCoverageMap();
@@ -167,6 +931,71 @@ public class SimpleCoverageInstrumentTest {
         });
     }
 
+    @Test
+    public void hotSectionsJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".HotSections", "3").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            context.eval(source);
+            // See the note on assertNotCoveredLines about this lookup.
+            SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            List<HotSections.HotSection> hotSections = coverageInstrument.getHotSections();
+            Assert.assertEquals(3, hotSections.size());
+            // The loop of the filters. There are fewer statements than counters, so the counts are
+            // exact.
+            Assert.assertEquals(18, hotSections.get(0).getStartLine());
+            Assert.assertEquals(new HashSet<>(Arrays.asList(18, 21, 22)), hotSections.stream().map(HotSections.HotSection::getStartLine).collect(Collectors.toSet()));
+            for (HotSections.HotSection section : hotSections) {
+                Assert.assertEquals("main", section.getName());
+                Assert.assertEquals(0, section.getError());
+            }
+            Assert.assertTrue(hotSections.get(0).getCount() >= hotSections.get(1).getCount());
+            Assert.assertTrue(hotSections.get(1).getCount() >= hotSections.get(2).getCount());
+        }
+    }
+
+    // The sketches of closed contexts are merged into retired counts, their executions must still
+    // be counted.
+    @Test
+    public void retiredHotSectionsJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Engine engine = Engine.newBuilder().option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".HotSections", "3").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            SimpleCoverageInstrument coverageInstrument = engine.getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            long[] counts = new long[2];
+            for (int i = 0; i < 2; i++) {
+                try (Context context = Context.newBuilder("js").engine(engine).build()) {
+                    context.eval(source);
+                }
+                List<HotSections.HotSection> hotSections = coverageInstrument.getHotSections();
+                Assert.assertEquals(18, hotSections.get(0).getStartLine());
+                Assert.assertEquals(0, hotSections.get(0).getError());
+                counts[i] = hotSections.get(0).getCount();
+            }
+            Assert.assertEquals(2 * counts[0], counts[1]);
+        }
+    }
+
+    @Test
+    public void statisticsJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleCoverageInstrument.ID, "true").option(SimpleCoverageInstrument.ID + ".PrintCoverage", "false").build()) {
+            Source source = Source.newBuilder("js", JS_SOURCE, "main").build();
+            context.eval(source);
+            // See the note on assertNotCoveredLines about this lookup.
+            SimpleCoverageInstrument coverageInstrument = context.getEngine().getInstruments().get(SimpleCoverageInstrument.ID).lookup(SimpleCoverageInstrument.class);
+            CoverageStatistics statistics = coverageInstrument.getStatistics();
+            Assert.assertTrue(statistics.getSectionsLoaded() > 0);
+            Assert.assertTrue(statistics.getNodesCreated() > 0);
+            // Every node that was executed recorded its section once.
+            Assert.assertTrue(statistics.getFirstHits() > 0);
+            Assert.assertTrue(statistics.getFirstHits() <= statistics.getNodesCreated());
+            Assert.assertEquals(1, statistics.getSourceCount());
+            Assert.assertTrue(statistics.getEstimatedBytes() > 0);
+            Assert.assertEquals(0, statistics.getFinalizeNanos());
+        }
+    }
+
     // Similar test using Python language
     private static final String PY_SOURCE = """
             def foo(a, b):
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012, 2019, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or
+ * data (collectively the "Software"), free of charge and under any and all
+ * copyright rights in the Software, and any and all patent rights owned or
+ * freely licensable by each licensor hereunder covering either (i) the
+ * unmodified Software as contributed to or provided by such licensor, or (ii)
+ * the Larger Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ *
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ *
+ * The above copyright notice and either this complete permission notice or at a
+ * minimum a reference to the UPL must be included in all copies or substantial
+ * portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.oracle.truffle.st.test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Source;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.oracle.truffle.st.FunctionProfile;
+import com.oracle.truffle.st.SimpleProfilerInstrument;
+
+public class SimpleProfilerInstrumentTest {
+
+    @Test
+    public void profilerJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Context context = Context.newBuilder("js").option(SimpleProfilerInstrument.ID, "true").option(SimpleProfilerInstrument.ID + ".PrintProfile", "false").build()) {
+            Source source = Source.newBuilder("js", SimpleCoverageInstrumentTest.JS_SOURCE, "main").build();
+            context.eval(source);
+            Map<String, FunctionProfile> profiles = profilesByName(context.getEngine());
+            FunctionProfile primesMain = profiles.get("primesMain");
+            Assert.assertEquals(1, primesMain.getCalls());
+            Assert.assertEquals(63, primesMain.getLine());
+            // A filter is created for each of the N + 1 primes, languages may enter a constructor
+            // through more than one root though.
+            FunctionProfile filter = profiles.get("Filter");
+            Assert.assertTrue(filter.getCalls() >= 2001);
+            Assert.assertTrue(filter.getNanosAtPercentile(50) <= filter.getNanosAtPercentile(99));
+            Assert.assertTrue(filter.getNanosAtPercentile(99) <= filter.getMaxNanos());
+            Assert.assertTrue(primesMain.getTotalNanos() >= filter.getTotalNanos());
+        }
+    }
+
+    // The profiles of closed contexts are folded into retired histograms, their calls must still
+    // be counted.
+    @Test
+    public void retiredProfilesJSTest() throws IOException {
+        Assume.assumeTrue(Engine.create().getLanguages().containsKey("js"));
+        try (Engine engine = Engine.newBuilder().option(SimpleProfilerInstrument.ID, "true").option(SimpleProfilerInstrument.ID + ".PrintProfile", "false").build()) {
+            Source source = Source.newBuilder("js", SimpleCoverageInstrumentTest.JS_SOURCE, "main").build();
+            for (int i = 0; i < 3; i++) {
+                try (Context context = Context.newBuilder("js").engine(engine).build()) {
+                    context.eval(source);
+                }
+            }
+            try (Context context = Context.newBuilder("js").engine(engine).build()) {
+                context.eval(source);
+                FunctionProfile primesMain = profilesByName(engine).get("primesMain");
+                Assert.assertEquals(4, primesMain.getCalls());
+                Assert.assertTrue(profilesByName(engine).get("Filter").getCalls() >= 4 * 2001);
+            }
+        }
+    }
+
+    // See the note on SimpleCoverageInstrumentTest.assertNotCoveredLines about this lookup.
+    private static Map<String, FunctionProfile> profilesByName(Engine engine) {
+        SimpleProfilerInstrument profiler = engine.getInstruments().get(SimpleProfilerInstrument.ID).lookup(SimpleProfilerInstrument.class);
+        Map<String, FunctionProfile> profiles = new HashMap<>();
+        for (FunctionProfile profile : profiler.getProfiles()) {
+            profiles.put(profile.getName(), profile);
+        }
+        return profiles;
+    }
+}
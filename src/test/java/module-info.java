@@ -40,6 +40,7 @@
  */
 open module org.graalvm.st.test {
   requires java.logging;
+  requires jdk.management;
   requires jdk.unsupported;
   requires org.graalvm.polyglot;
   requires junit;